@@ -0,0 +1,111 @@
+package com.github.cornerstonews.adb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import com.android.ddmlib.AndroidDebugBridge;
+
+/**
+ * Raw connection to a device service through the adb server (e.g. 'exec:sh', 'sync:').
+ *
+ * ddmlib only exposes request/response style services, this connection is used where a service needs to be fed
+ * with input or its output has to be read as a plain byte stream.
+ */
+class AdbConnection implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 10 * 1000;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private final OutputStream output;
+
+    private AdbConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.output = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    /**
+     * Connects to the given service of the device, taking a permit of the {@link ShellCommandBudget}.
+     */
+    static AdbConnection open(String deviceSerial, String service) throws IOException {
+        ShellCommandBudget.getDefault().acquire();
+        return openWithoutPermit(deviceSerial, service);
+    }
+
+    /**
+     * Connects to the given service of the device, for callers which already took a permit for the command the
+     * connection is opened for.
+     */
+    static AdbConnection openWithoutPermit(String deviceSerial, String service) throws IOException {
+        InetSocketAddress address = AndroidDebugBridge.getSocketAddress();
+        if (address == null) {
+            throw new IOException("ADB bridge is not initialized");
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, CONNECT_TIMEOUT_MS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            AdbConnection connection = new AdbConnection(socket);
+            connection.request("host:transport:" + deviceSerial);
+            connection.request(service);
+            socket.setSoTimeout(0);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void request(String request) throws IOException {
+        byte[] payload = request.getBytes(StandardCharsets.UTF_8);
+        this.output.write(String.format("%04X", payload.length).getBytes(StandardCharsets.US_ASCII));
+        this.output.write(payload);
+        this.output.flush();
+
+        String status = this.readString(4);
+        if (!"OKAY".equals(status)) {
+            String message = "FAIL".equals(status) ? this.readString(Integer.parseInt(this.readString(4), 16)) : status;
+            throw new IOException(String.format("adb rejected request '%s': %s", request, message));
+        }
+    }
+
+    String readString(int length) throws IOException {
+        byte[] data = new byte[length];
+        this.input.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    DataInputStream getInputStream() {
+        return this.input;
+    }
+
+    OutputStream getOutputStream() {
+        return this.output;
+    }
+
+    /**
+     * Sets the max time a read may block, 0 for no limit.
+     */
+    void setReadTimeout(int timeoutMs) throws IOException {
+        this.socket.setSoTimeout(timeoutMs);
+    }
+
+    boolean isClosed() {
+        return this.socket.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.socket.close();
+    }
+}
@@ -1,9 +1,26 @@
 package com.github.cornerstonews.adb;
 
-import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,6 +28,7 @@ import org.apache.logging.log4j.Logger;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.FileListingService.FileEntry;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.InstallException;
 import com.android.ddmlib.MultiLineReceiver;
 import com.android.ddmlib.ShellCommandUnresponsiveException;
@@ -21,77 +39,344 @@ public class AdbExecutor {
 
     private static final Logger LOG = LogManager.getLogger(AdbExecutor.class);
 
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    // Max number of output lines buffered for a streamed shell command before the device output is throttled
+    private static final int STREAM_BUFFER_LINES = 1024;
+
+    // Fleet wide shell command defaults, 0 means no limit. 5 seconds without output like ddmlib's executeShellCommand
+    private static volatile long defaultMaxTimeToOutputResponseMs = 5 * 1000;
+    private static volatile long defaultMaxTimeoutMs = 0;
+
     private String deviceSerial;
     private IDevice adbDevice;
     private DeviceInfo deviceInfo;
+    private volatile DeviceScheduler scheduler = DeviceScheduler.getDefault();
+    private CompletableFuture<DeviceDO> pendingDeviceInfoTask;
+    private volatile ShellSession shellSession;
+    private volatile boolean persistentShellSession = false;
+    private volatile boolean bulkFileListing = false;
+    private FilePathCache pathCache;
+    private DeviceStateWatcher stateWatcher;
 
     public AdbExecutor(String deviceSerial, IDevice adbDevice) {
         this.deviceSerial = deviceSerial;
         this.adbDevice = adbDevice;
         this.deviceInfo = new DeviceInfo(this, adbDevice);
+        this.pathCache = new FilePathCache(adbDevice);
     }
 
     public String getDeviceSerial() {
         return deviceSerial;
     }
 
+    public DeviceScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Sets the scheduler running background work of this device, e.g. asynchronous shell commands, battery
+     * queries and parallel file listings.
+     */
+    public void setScheduler(DeviceScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.deviceInfo.setScheduler(scheduler);
+    }
+
     public DeviceDO getDeviceInfo() {
         return this.deviceInfo.getInfo();
     }
 
+    public DeviceDO getDeviceStatus() {
+        return this.deviceInfo.getStatus();
+    }
+
+    /**
+     * Refreshes device info on the given executor. The returned future completes exceptionally with a
+     * {@link java.util.concurrent.TimeoutException} if the refresh does not finish within the given deadline.
+     * Shell commands of the refresh are bounded by the same deadline once it started running. While a refresh
+     * is underway, further calls wait for that refresh instead of queuing another one, even if an earlier caller
+     * has already timed out.
+     */
+    public synchronized CompletableFuture<DeviceDO> getDeviceInfoAsync(Executor executor, long timeout, TimeUnit timeUnit) {
+        if (this.pendingDeviceInfoTask == null) {
+            // no refresh underway - start a new one
+            CompletableFuture<DeviceDO> task = CompletableFuture.supplyAsync(() -> this.deviceInfo.getInfo(timeout, timeUnit), executor);
+            this.pendingDeviceInfoTask = task;
+            task.whenComplete((deviceDO, error) -> this.clearPendingDeviceInfoTask(task));
+        }
+        // The deadline only ends the wait of this caller, the task itself stays pending until it finished
+        return this.pendingDeviceInfoTask.copy().orTimeout(timeout, timeUnit);
+    }
+
+    private synchronized void clearPendingDeviceInfoTask(CompletableFuture<DeviceDO> task) {
+        if (this.pendingDeviceInfoTask == task) {
+            this.pendingDeviceInfoTask = null;
+        }
+    }
+
+    public void setProbeFreshness(DeviceProbe probe, long freshness, TimeUnit timeUnit) {
+        this.deviceInfo.setProbeFreshness(probe, freshness, timeUnit);
+    }
+
+    public void setBatteryFreshness(long freshness, TimeUnit timeUnit) {
+        this.deviceInfo.setBatteryFreshness(freshness, timeUnit);
+    }
+
+    public void setProbeMaxBackoff(int maxBackoff) {
+        this.deviceInfo.setProbeMaxBackoff(maxBackoff);
+    }
+
+    public void invalidateDeviceInfoCache() {
+        this.deviceInfo.invalidateCache();
+    }
+
+    /**
+     * Returns the battery state, querying the device only if the cached sample is older than the given freshness.
+     */
+    public Future<BatterySample> getBatterySample(long freshness, TimeUnit timeUnit) {
+        return this.deviceInfo.getBatterySample(freshness, timeUnit);
+    }
+
+    public void setBatchedProbes(boolean batchedProbes) {
+        this.deviceInfo.setBatchedProbes(batchedProbes);
+    }
+
     public Boolean isOnline() {
         return this.deviceInfo.isOnline();
     }
 
+    /**
+     * Starts watching wifi, mobile data, airplane mode and bluetooth settings on the device. While the watcher is
+     * running these settings are pushed by the device instead of being polled, and every change is handed to the
+     * given listener as a new device info snapshot.
+     */
+    public synchronized void startStateWatcher(Consumer<DeviceDO> onChange) {
+        if (this.stateWatcher != null) {
+            return;
+        }
+        this.stateWatcher = new DeviceStateWatcher(this, new DeviceStateWatcher.Listener() {
+
+            @Override
+            public void stateChanged(DeviceStateWatcher watcher, Map<DeviceProbe, String> probeResults) {
+                DeviceDO deviceInfo = AdbExecutor.this.deviceInfo.setPushedProbes(watcher, probeResults);
+                if (deviceInfo != null) {
+                    onChange.accept(deviceInfo);
+                }
+            }
+
+            @Override
+            public void watchInterrupted(DeviceStateWatcher watcher) {
+                // A watcher stopped meanwhile no longer owns the pushed probes, they might belong to a new one
+                AdbExecutor.this.deviceInfo.clearPushedProbes(watcher, DeviceStateWatcher.WATCHED_SETTINGS.values());
+            }
+        });
+        this.deviceInfo.setPushedProbesOwner(this.stateWatcher);
+        this.stateWatcher.start();
+    }
+
+    public void stopStateWatcher() {
+        DeviceStateWatcher watcher;
+        synchronized (this) {
+            watcher = this.stateWatcher;
+            this.stateWatcher = null;
+        }
+        if (watcher != null) {
+            watcher.stop();
+            // Outside the lock, device info may be busy with a refresh
+            this.deviceInfo.releasePushedProbes(watcher, DeviceStateWatcher.WATCHED_SETTINGS.values());
+        }
+    }
+
+    public synchronized boolean isStateWatcherRunning() {
+        return this.stateWatcher != null && this.stateWatcher.isRunning();
+    }
+
     // -----------------------------------------------------------------------
     // File operations
     // -----------------------------------------------------------------------
-    private FileEntry getRoot() {
-        FileEntry root = this.adbDevice.getFileListingService().getRoot();
-        this.adbDevice.getFileListingService().getChildren(root, false, null);
-        return root;
-    }
-
     public FileNode getPath(String searchPath, boolean fetchChildren) {
-        String[] pathSegments = Paths.get(searchPath).toString().split(File.separator);
-        FileEntry path = getRoot();
-
-        int pathSegmentIndex = 0;
-        while (pathSegmentIndex < pathSegments.length) {
-            String pathName = pathSegments[pathSegmentIndex++];
-            if (pathName == null || pathName.isEmpty()) {
-                continue;
-            }
-            path = path.findChild(pathName);
+        FileEntry path = resolvePath(searchPath);
+        if (path == null) {
+            return null;
+        }
 
-            if (path.getCachedChildren().length == 0) {
-                this.adbDevice.getFileListingService().getChildren(path, false, null);
+        if (fetchChildren && this.bulkFileListing) {
+            FileWalkOptions options = new FileWalkOptions();
+            options.setBulkListing(true);
+            try {
+                return this.listPathInBulk(path, options);
+            } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+                LOG.warn("'{}' listing path '{}' in bulk, falling back to per directory listing. Error: '{}'", e.getClass().getSimpleName(), searchPath,
+                        e.getMessage());
             }
         }
 
         if (fetchChildren) {
-            recursivePopulatePath(path);
+            try {
+                new ParallelFileWalker(this.scheduler, this.adbDevice.getFileListingService(), new FileWalkOptions()).walk(path);
+            } catch (TimeoutException e) {
+                // No deadline set, only raised when interrupted or a listing failed
+                LOG.warn("Listing of path '{}' did not finish. Error: '{}'", searchPath, e.getMessage());
+            } finally {
+                // Listings of the walk replaced the cached subtree
+                this.pathCache.invalidate(path.getFullPath());
+            }
         }
 
         return FileNodeConverter.convert(path);
     }
 
-    private void recursivePopulatePath(FileEntry pathEntry) {
-        this.adbDevice.getFileListingService().getChildren(pathEntry, false, null);
+    /**
+     * When enabled, {@link #getPath(String, boolean)} lists the whole directory tree with a single recursive
+     * listing command instead of one listing per directory.
+     */
+    public void setBulkFileListing(boolean bulkFileListing) {
+        this.bulkFileListing = bulkFileListing;
+    }
+
+    /**
+     * Returns the path with its directory tree listed as limited by the given options.
+     *
+     * @throws TimeoutException if the listing did not finish within the timeout of the options
+     */
+    public FileNode getPath(String searchPath, FileWalkOptions options)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        FileEntry path = resolvePath(searchPath);
+        if (path == null) {
+            return null;
+        }
+        if (options.isBulkListing()) {
+            return this.listPathInBulk(path, options);
+        }
+        return this.walkPath(path, options);
+    }
+
+    private FileNode walkPath(FileEntry path, FileWalkOptions options) throws TimeoutException {
+        ParallelFileWalker walker = new ParallelFileWalker(this.scheduler, this.adbDevice.getFileListingService(), options);
+        try {
+            walker.walk(path);
+        } finally {
+            this.pathCache.invalidate(path.getFullPath());
+        }
+        return FileNodeConverter.convert(path, walker.getFilter());
+    }
+
+    /**
+     * Returns the directory with only a page of its children populated, the children themselves come without
+     * children. {@link FileNode#getTotalChildren()} holds the number of children of the directory.
+     */
+    public FileNode getPath(String searchPath, int offset, int limit) {
+        FileEntry path = resolvePath(searchPath);
+        if (path == null) {
+            return null;
+        }
+
+        FileNode node = FileNodeConverter.convert(path, entry -> false);
+        if (path.isDirectory()) {
+            FileEntry[] children = path.getCachedChildren();
+            node.setTotalChildren(children.length);
+            int end = (int) Math.min(children.length, (long) Math.max(0, offset) + Math.max(0, limit));
+            for (int index = Math.max(0, offset); index < end; index++) {
+                node.addChild(FileNodeConverter.convert(children[index], entry -> false));
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Returns a page of the children of the directory, the children come without children.
+     */
+    public List<FileNode> getChildren(String searchPath, int offset, int limit) {
+        FileNode path = this.getPath(searchPath, offset, limit);
+        return path == null || path.getChildren() == null ? new ArrayList<FileNode>() : path.getChildren();
+    }
 
-        for (FileEntry entry : pathEntry.getCachedChildren()) {
-            if (entry.isDirectory()) {
-                recursivePopulatePath(entry);
+    /**
+     * Writes the path as XML, in the same form as {@link FileNode} is serialized, straight from the listing
+     * without building the {@link FileNode} tree in memory.
+     */
+    public void writePath(String searchPath, boolean fetchChildren, OutputStream outputStream) throws IOException {
+        FileEntry path = resolvePath(searchPath);
+        if (path == null) {
+            throw new IOException("Path '" + searchPath + "' not found");
+        }
+        if (fetchChildren) {
+            try {
+                new ParallelFileWalker(this.scheduler, this.adbDevice.getFileListingService(), new FileWalkOptions()).walk(path);
+            } catch (TimeoutException e) {
+                // No deadline set, only raised when interrupted or a listing failed
+                throw new IOException("Listing of path '" + searchPath + "' failed", e);
+            } finally {
+                this.pathCache.invalidate(path.getFullPath());
             }
         }
+        FileNodeXmlWriter.write(path, outputStream);
+    }
+
+    /**
+     * Lists the tree with a single command, down to the max depth of the options. Devices whose listing output is
+     * not understood, e.g. before Android M, are listed per directory instead.
+     */
+    private FileNode listPathInBulk(FileEntry path, FileWalkOptions options)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        // Only the path itself, its children come from the listing
+        FileNode root = FileNodeConverter.convert(path, entry -> false);
+        BulkFileListingParser parser = new BulkFileListingParser(root, options.getMaxDepth(), options.getPathFilter());
+        String listCommand = BulkFileListingParser.listCommand(path.getFullPath(), options.getMaxDepth());
+        this.executeShellCommand(listCommand, new MultiLineReceiver() {
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    parser.processLine(line);
+                }
+            }
+        }, defaultMaxTimeToOutputResponseMs, options.getTimeoutMs(), TimeUnit.MILLISECONDS);
+        if (!parser.isRecognized()) {
+            LOG.debug("Bulk listing of path '{}' not recognized, listing per directory", path.getFullPath());
+            LOG.trace("Bulk listing of path '{}' not recognized on device: '{}', listing per directory", path.getFullPath(), this.getDeviceSerial());
+            return this.walkPath(path, options);
+        }
+        return parser.getRoot();
+    }
+
+    private FileEntry resolvePath(String searchPath) {
+        return this.pathCache.resolve(searchPath);
+    }
+
+    /**
+     * Sets how long directory listings are reused for path lookups before the directory is listed again. Defaults to
+     * 0, every lookup lists the directories along the path.
+     */
+    public void setPathCacheFreshness(long freshness, TimeUnit timeUnit) {
+        this.pathCache.setFreshness(freshness, timeUnit);
+    }
+
+    /**
+     * Drops cached listings of the path, e.g. after files got changed by a shell command.
+     */
+    public void invalidatePathCache(String path) {
+        this.pathCache.invalidate(path);
+    }
+
+    public void invalidatePathCache() {
+        this.pathCache.invalidateAll();
     }
 
     public void pullFile(String remote, String local) throws SyncException, IOException, AdbCommandRejectedException, TimeoutException {
+        ShellCommandBudget.getDefault().acquire();
         this.adbDevice.pullFile(remote, local);
     }
 
     public void pushFile(String local, String remote) throws SyncException, IOException, AdbCommandRejectedException, TimeoutException {
+        ShellCommandBudget.getDefault().acquire();
         this.adbDevice.pushFile(local, remote);
+        this.pathCache.invalidate(remote);
         String MEDIA_SCAN_COMMAND = String.format("am broadcast -a android.intent.action.MEDIA_SCANNER_SCAN_FILE -d file:%s", remote);
         try {
             String result = executeShellCommand(MEDIA_SCAN_COMMAND);
@@ -101,29 +386,341 @@ public class AdbExecutor {
         }
     }
 
+    /**
+     * Pulls the remote file straight into the channel, e.g. a {@link java.nio.channels.FileChannel} or the channel of
+     * a blob store, without an intermediate local file.
+     *
+     * @return number of bytes written to the channel
+     */
+    public long pullFile(String remote, WritableByteChannel destination) throws IOException {
+        LOG.info("Pulling file: '{}' to channel", remote);
+        LOG.trace("Pulling file: '{}' to channel from device: '{}'", remote, this.getDeviceSerial());
+        return new SyncChannelPuller(this.getDeviceSerial()).pull(remote, destination);
+    }
+
+    /**
+     * Pulls the remote file into the buffer, e.g. a {@link java.nio.MappedByteBuffer} sized with
+     * {@link #getFileSize(String)}. Bytes are written from the buffer's position, which is moved past them.
+     *
+     * @return number of bytes written to the buffer
+     */
+    public long pullFile(String remote, ByteBuffer destination) throws IOException {
+        LOG.info("Pulling file: '{}' to buffer", remote);
+        LOG.trace("Pulling file: '{}' to buffer from device: '{}'", remote, this.getDeviceSerial());
+        return new SyncChannelPuller(this.getDeviceSerial()).pull(remote, destination);
+    }
+
+    /**
+     * Returns the size of the remote file in bytes, or -1 if it doesn't exist.
+     *
+     * The sync protocol only reports the low 32 bits of the size, so the size is taken from 'stat' on the device.
+     * Devices without 'stat -c' get the sync size, which is wrong for files of 4 GiB or more; pulling such a file
+     * into a buffer of that size fails instead of truncating it.
+     */
+    public long getFileSize(String remote) throws IOException {
+        long syncSize = new SyncChannelPuller(this.getDeviceSerial()).getFileSize(remote);
+        if (syncSize < 0) {
+            return -1;
+        }
+        String output;
+        try {
+            output = this.executeShellCommand("stat -c %s " + shellQuote(remote) + " 2>/dev/null");
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            return Long.parseLong(output == null ? "" : output.trim());
+        } catch (NumberFormatException e) {
+            LOG.debug("Could not stat file: '{}', using size from sync protocol", remote);
+            LOG.trace("Could not stat file: '{}' on device: '{}', using size from sync protocol", remote, this.getDeviceSerial());
+            return syncSize;
+        }
+    }
+
+    /**
+     * Pulls a large file, resuming from the bytes of an earlier interrupted pull and verifying the result against
+     * the device's SHA-256 checksum.
+     *
+     * @param listener receives the progress of the transfer, may be null
+     */
+    public void pullFile(String remote, String local, TransferProgressListener listener) throws IOException {
+        LOG.info("Pulling file: '{}' to '{}'", remote, local);
+        LOG.trace("Pulling file: '{}' to '{}' from device: '{}'", remote, local, this.getDeviceSerial());
+        new ResumableFileTransfer(this, listener).pull(remote, local);
+    }
+
+    /**
+     * Pushes a large file, resuming from the bytes of an earlier interrupted push and verifying the result against
+     * the device's SHA-256 checksum.
+     *
+     * @param listener receives the progress of the transfer, may be null
+     */
+    public void pushFile(String local, String remote, TransferProgressListener listener) throws IOException {
+        LOG.info("Pushing file: '{}' to '{}'", local, remote);
+        LOG.trace("Pushing file: '{}' to '{}' on device: '{}'", local, remote, this.getDeviceSerial());
+        try {
+            new ResumableFileTransfer(this, listener).push(local, remote);
+        } finally {
+            this.pathCache.invalidate(remote);
+        }
+    }
+
+    public TransferResult pushDirectory(String localDirectory, String remoteDirectory) throws IOException {
+        return this.pushDirectory(localDirectory, remoteDirectory, BulkFileTransfer.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Pushes all files of the local directory to the remote directory, skipping files which are unchanged on the
+     * device. A media scan of the pushed files is requested afterwards, with many files per shell command.
+     *
+     * @param parallelism max number of files transferred at the same time
+     */
+    public TransferResult pushDirectory(String localDirectory, String remoteDirectory, int parallelism) throws IOException {
+        LOG.info("Pushing directory: '{}' to '{}'", localDirectory, remoteDirectory);
+        LOG.trace("Pushing directory: '{}' to '{}' on device: '{}'", localDirectory, remoteDirectory, this.getDeviceSerial());
+        try {
+            return new BulkFileTransfer(this, this.adbDevice, parallelism).pushDirectory(localDirectory, remoteDirectory);
+        } finally {
+            this.pathCache.invalidate(remoteDirectory);
+        }
+    }
+
+    /**
+     * Pushes the given files, keyed by local path, skipping files which are unchanged on the device. A media scan
+     * of the pushed files is requested afterwards, with many files per shell command.
+     */
+    public TransferResult pushFiles(Map<String, String> localToRemote, int parallelism) throws IOException {
+        LOG.info("Pushing '{}' files", localToRemote.size());
+        LOG.trace("Pushing '{}' files to device: '{}'", localToRemote.size(), this.getDeviceSerial());
+        try {
+            return new BulkFileTransfer(this, this.adbDevice, parallelism).pushFiles(localToRemote);
+        } finally {
+            localToRemote.values().forEach(this.pathCache::invalidate);
+        }
+    }
+
+    public TransferResult pullDirectory(String remoteDirectory, String localDirectory) throws IOException {
+        return this.pullDirectory(remoteDirectory, localDirectory, BulkFileTransfer.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Pulls all files of the remote directory to the local directory, skipping files which are unchanged locally.
+     *
+     * @param parallelism max number of files transferred at the same time
+     */
+    public TransferResult pullDirectory(String remoteDirectory, String localDirectory, int parallelism) throws IOException {
+        LOG.info("Pulling directory: '{}' to '{}'", remoteDirectory, localDirectory);
+        LOG.trace("Pulling directory: '{}' to '{}' from device: '{}'", remoteDirectory, localDirectory, this.getDeviceSerial());
+        return new BulkFileTransfer(this, this.adbDevice, parallelism).pullDirectory(remoteDirectory, localDirectory);
+    }
+
+    /**
+     * Pulls the given files, keyed by remote path, skipping files which are unchanged locally.
+     */
+    public TransferResult pullFiles(Map<String, String> remoteToLocal, int parallelism) throws IOException {
+        LOG.info("Pulling '{}' files", remoteToLocal.size());
+        LOG.trace("Pulling '{}' files from device: '{}'", remoteToLocal.size(), this.getDeviceSerial());
+        return new BulkFileTransfer(this, this.adbDevice, parallelism).pullFiles(remoteToLocal);
+    }
+
     // -----------------------------------------------------------------------
     // Package operations
     // -----------------------------------------------------------------------
     public void installPackage(String packagePath, boolean reinstall) throws InstallException {
         LOG.info("Installing package: '{}'", packagePath);
         LOG.trace("Installing package: '{}' on device: '{}' reinstall: '{}'", packagePath, this.getDeviceSerial(), reinstall);
+        ShellCommandBudget.getDefault().acquire();
         this.adbDevice.installRemotePackage(packagePath, reinstall);
     }
 
+    /**
+     * Pushes the local package to the device, installs it and removes the pushed copy again.
+     */
+    public void installLocalPackage(String localPackagePath, boolean reinstall) throws InstallException {
+        LOG.info("Installing local package: '{}'", localPackagePath);
+        LOG.trace("Installing local package: '{}' on device: '{}' reinstall: '{}'", localPackagePath, this.getDeviceSerial(), reinstall);
+        String remotePackagePath;
+        try {
+            ShellCommandBudget.getDefault().acquire();
+            remotePackagePath = this.adbDevice.syncPackageToDevice(localPackagePath);
+        } catch (TimeoutException | AdbCommandRejectedException | SyncException | IOException e) {
+            // Wrapped like ddmlib does, so the cause tells connection problems apart
+            throw new InstallException(e);
+        }
+        try {
+            ShellCommandBudget.getDefault().acquire();
+            this.adbDevice.installRemotePackage(remotePackagePath, reinstall);
+        } catch (InstallException | RuntimeException e) {
+            // The install failure is what the caller needs, a failed cleanup only rides along
+            try {
+                this.removeRemotePackage(remotePackagePath);
+            } catch (InstallException cleanupException) {
+                e.addSuppressed(cleanupException);
+            }
+            throw e;
+        }
+        this.removeRemotePackage(remotePackagePath);
+    }
+
+    private void removeRemotePackage(String remotePackagePath) throws InstallException {
+        ShellCommandBudget.getDefault().acquire();
+        this.adbDevice.removeRemotePackage(remotePackagePath);
+    }
+
+    /**
+     * Streams the package to the package manager of the device, no copy of the package is stored on the device.
+     * Needs API level 24 or newer.
+     *
+     * @param size exact number of bytes of the package to read from the stream
+     */
+    public void installPackage(InputStream packageStream, long size, boolean reinstall) throws InstallException {
+        LOG.info("Installing package from stream of '{}' bytes", size);
+        LOG.trace("Installing package from stream of '{}' bytes on device: '{}' reinstall: '{}'", size, this.getDeviceSerial(), reinstall);
+        new StreamingInstaller(this.getDeviceSerial()).install(packageStream, size, reinstall);
+    }
+
+    /**
+     * Streams the remaining bytes of the buffer to the package manager of the device. The buffer's position is not
+     * changed. Needs API level 24 or newer.
+     */
+    public void installPackage(ByteBuffer packageBuffer, boolean reinstall) throws InstallException {
+        LOG.info("Installing package from buffer of '{}' bytes", packageBuffer.remaining());
+        LOG.trace("Installing package from buffer of '{}' bytes on device: '{}' reinstall: '{}'", packageBuffer.remaining(), this.getDeviceSerial(),
+                reinstall);
+        new StreamingInstaller(this.getDeviceSerial()).install(packageBuffer, reinstall);
+    }
+
+    /**
+     * Streams the local package file to the package manager of the device. Needs API level 24 or newer.
+     */
+    public void installPackage(Path localPackage, boolean reinstall) throws InstallException {
+        try (InputStream packageStream = Files.newInputStream(localPackage)) {
+            this.installPackage(packageStream, Files.size(localPackage), reinstall);
+        } catch (IOException e) {
+            throw new InstallException(e);
+        }
+    }
+
+    /**
+     * Uninstalls the package. A failure reported by the package manager, e.g. for a package which is not installed,
+     * is ignored.
+     */
     public void uninstallPackage(String packageName) throws InstallException {
+        this.tryUninstallPackage(packageName);
+    }
+
+    /**
+     * Uninstalls the package and returns the failure reported by the package manager, or null on success.
+     */
+    String tryUninstallPackage(String packageName) throws InstallException {
         LOG.info("Uninstalling package: '{}'", packageName);
         LOG.trace("Uninstalling package: '{}' from device: '{}'", packageName, this.getDeviceSerial());
-        this.adbDevice.uninstallPackage(packageName);
+        ShellCommandBudget.getDefault().acquire();
+        return this.adbDevice.uninstallPackage(packageName);
     }
 
     // -----------------------------------------------------------------------
     // RAW Commands
     // -----------------------------------------------------------------------
+    /**
+     * Sets the limits applied to all shell commands executed without explicit limits.
+     *
+     * @param maxTimeToOutputResponse max time the command may go without producing output, 0 for no limit
+     * @param maxTimeout max time the command may run in total, 0 for no limit
+     */
+    public static void setDefaultShellCommandTimeout(long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit) {
+        defaultMaxTimeToOutputResponseMs = timeUnit.toMillis(maxTimeToOutputResponse);
+        defaultMaxTimeoutMs = timeUnit.toMillis(maxTimeout);
+    }
+
+    static long getDefaultMaxTimeToOutputResponseMs() {
+        return defaultMaxTimeToOutputResponseMs;
+    }
+
+    static long getDefaultMaxTimeoutMs() {
+        return defaultMaxTimeoutMs;
+    }
+
     public String executeShellCommand(String command) throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
-        LOG.info("Executing shell command: '{}'", command);
-        LOG.trace("Executing shell command on device: '{}', command: '{}'", this.getDeviceSerial(), command);
+        return this.executeShellCommand(command, defaultMaxTimeToOutputResponseMs, defaultMaxTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a shell command and returns its output.
+     *
+     * @param maxTimeToOutputResponse max time the command may go without producing output, 0 for no limit
+     * @param maxTimeout max time the command may run in total, 0 for no limit
+     * @throws ShellCommandUnresponsiveException if the command did not produce output in time
+     * @throws TimeoutException if the command did not finish in time
+     */
+    public String executeShellCommand(String command, long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        if (this.persistentShellSession) {
+            return this.getShellSession().execute(command, maxTimeToOutputResponse, maxTimeout, timeUnit).getOutput();
+        }
+
+        final StringBuilder commandOutput = new StringBuilder();
+        this.executeShellCommand(command, new MultiLineReceiver() {
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    commandOutput.append(line).append(LINE_SEPARATOR);
+                }
+            }
+        }, maxTimeToOutputResponse, maxTimeout, timeUnit);
+        return commandOutput.length() == 0 ? null : commandOutput.toString();
+    }
+
+    /**
+     * Executes a shell command on a device worker. Cancelling the returned future cancels the command on the
+     * device, the future completes exceptionally with a {@link TimeoutException} if the command did not finish
+     * within the given deadline.
+     */
+    public CompletableFuture<String> executeShellCommandAsync(String command, long maxTimeout, TimeUnit timeUnit) {
+        final CompletableFuture<String> result = new CompletableFuture<String>();
         final StringBuilder commandOutput = new StringBuilder();
-        this.adbDevice.executeShellCommand(command, new MultiLineReceiver() {
+        MultiLineReceiver receiver = new MultiLineReceiver() {
+
+            @Override
+            public boolean isCancelled() {
+                return result.isDone();
+            }
+
+            @Override
+            public void processNewLines(String[] lines) {
+                for (String line : lines) {
+                    commandOutput.append(line).append(LINE_SEPARATOR);
+                }
+            }
+        };
+
+        try {
+            this.scheduler.execute(() -> {
+                try {
+                    this.executeShellCommand(command, receiver, defaultMaxTimeToOutputResponseMs, timeUnit.toMillis(maxTimeout), TimeUnit.MILLISECONDS);
+                    result.complete(commandOutput.length() == 0 ? null : commandOutput.toString());
+                } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Executes a shell command handing every output line to the given consumer as it arrives.
+     */
+    public void executeShellCommand(String command, Consumer<String> lineConsumer)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        this.executeShellCommand(command, new MultiLineReceiver() {
 
             @Override
             public boolean isCancelled() {
@@ -132,17 +729,106 @@ public class AdbExecutor {
 
             @Override
             public void processNewLines(String[] lines) {
-                Arrays.stream(lines).forEach(line -> commandOutput.append(line).append(System.getProperty("line.separator")));
+                Arrays.stream(lines).forEach(lineConsumer);
             }
         });
+    }
 
-        return commandOutput.length() == 0 ? null : commandOutput.toString();
+    /**
+     * Executes a shell command handing the raw output to the given receiver, the command is cancelled as soon
+     * as the receiver reports being cancelled.
+     */
+    public void executeShellCommand(String command, IShellOutputReceiver receiver)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        this.executeShellCommand(command, receiver, defaultMaxTimeToOutputResponseMs, defaultMaxTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a shell command handing the raw output to the given receiver, the command is cancelled as soon
+     * as the receiver reports being cancelled or the deadline has passed.
+     *
+     * @param maxTimeToOutputResponse max time the command may go without producing output, 0 for no limit
+     * @param maxTimeout max time the command may run in total, 0 for no limit
+     * @throws ShellCommandUnresponsiveException if the command did not produce output in time
+     * @throws TimeoutException if the command did not finish in time
+     */
+    public void executeShellCommand(String command, IShellOutputReceiver receiver, long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit)
+            throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        LOG.info("Executing shell command: '{}'", command);
+        LOG.trace("Executing shell command on device: '{}', command: '{}'", this.getDeviceSerial(), command);
+        DeadlineReceiver deadlineReceiver = new DeadlineReceiver(receiver, timeUnit.toNanos(maxTimeout));
+        ShellCommandBudget.getDefault().acquire();
+        this.adbDevice.executeShellCommand(command, deadlineReceiver, maxTimeToOutputResponse, timeUnit);
+        if (deadlineReceiver.isDeadlineExceeded()) {
+            throw new TimeoutException(String.format("Shell command did not finish within %d %s", maxTimeout, timeUnit.name().toLowerCase()));
+        }
+    }
+
+    public Stream<String> streamShellCommand(String command) {
+        return this.streamShellCommand(command, defaultMaxTimeToOutputResponseMs, defaultMaxTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes a shell command on a thread of its own and returns its output as a lazily populated stream of lines.
+     * Only a bounded number of lines is buffered, the device output is throttled while the consumer is behind.
+     * Closing the stream cancels the command, the stream should therefore be used in a try-with-resources block.
+     * Command failures are thrown as {@link java.io.UncheckedIOException} while consuming the stream.
+     */
+    public Stream<String> streamShellCommand(String command, long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit) {
+        ShellLineIterator lines = new ShellLineIterator(STREAM_BUFFER_LINES);
+        // Not on the device scheduler, a long-lived stream would hold one of its bounded workers
+        Thread producer = new Thread(() -> {
+            try {
+                this.executeShellCommand(command, lines, maxTimeToOutputResponse, maxTimeout, timeUnit);
+                lines.finish(null);
+            } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException | RuntimeException e) {
+                lines.finish(e);
+            }
+        }, "adb-shell-stream-" + this.deviceSerial);
+        producer.setDaemon(true);
+        producer.start();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(lines, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(lines::close);
+    }
+
+    /**
+     * Returns the persistent shell session of the device, commands run through it also report their exit code.
+     */
+    public synchronized ShellSession getShellSession() {
+        if (this.shellSession == null) {
+            this.shellSession = new ShellSession(this.deviceSerial);
+        }
+        return this.shellSession;
+    }
+
+    /**
+     * When enabled, shell commands returning their output as a String run through the persistent shell session
+     * of the device instead of opening a new shell for every command.
+     */
+    public void setPersistentShellSession(boolean persistentShellSession) {
+        this.persistentShellSession = persistentShellSession;
+        if (!persistentShellSession) {
+            this.closeShellSession();
+        }
+    }
+
+    /**
+     * Closes the persistent shell session without waiting for a command running in it, that command fails instead.
+     */
+    public void closeShellSession() {
+        ShellSession shellSession = this.shellSession;
+        if (shellSession != null) {
+            shellSession.close();
+        }
     }
 
     public void reboot() throws TimeoutException, AdbCommandRejectedException, IOException {
         LOG.info("Rebooting device");
         LOG.trace("Rebooting device: '{}'", this.getDeviceSerial());
+        ShellCommandBudget.getDefault().acquire();
         this.adbDevice.reboot(null);
+        this.invalidateDeviceInfoCache();
     }
 
     @Override
@@ -153,4 +839,40 @@ public class AdbExecutor {
         builder.append("\"}");
         return builder.toString();
     }
+
+    /**
+     * Quotes the value as a single shell word.
+     */
+    static String shellQuote(String value) {
+        return "'" + value.replace("'", "'\\''") + "'";
+    }
+
+    private static final class DeadlineReceiver implements IShellOutputReceiver {
+        private final IShellOutputReceiver receiver;
+        private final long deadline;
+
+        private DeadlineReceiver(IShellOutputReceiver receiver, long maxTimeoutNanos) {
+            this.receiver = receiver;
+            this.deadline = maxTimeoutNanos > 0 ? System.nanoTime() + maxTimeoutNanos : 0;
+        }
+
+        boolean isDeadlineExceeded() {
+            return this.deadline != 0 && System.nanoTime() - this.deadline > 0;
+        }
+
+        @Override
+        public void addOutput(byte[] data, int offset, int length) {
+            this.receiver.addOutput(data, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            this.receiver.flush();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.isDeadlineExceeded() || this.receiver.isCancelled();
+        }
+    }
 }
@@ -5,12 +5,16 @@ import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.LogManager;
@@ -20,20 +24,29 @@ import com.android.SdkConstants;
 import com.android.annotations.NonNull;
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
-import com.google.common.collect.Sets;
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.InstallException;
 
 public class AdbManager {
 
     private static final Logger LOG = LogManager.getLogger(AdbManager.class);
 
+    private static final long DEFAULT_REFRESH_TIMEOUT_MS = 30 * 1000;
+
     private String adbPath;
     private static final Object ADB_INIT_LOCK = new Object();
     private AndroidDebugBridge bridge;
     private boolean bridgeCreated = false;
-    private ConcurrentHashMap<String, AdbExecutor> devices;
+    private final DeviceRegistry devices = new DeviceRegistry();
+    private final Object devicesLoadLock = new Object();
+    private volatile boolean devicesLoaded = false;
+    private volatile DeviceScheduler scheduler = DeviceScheduler.getDefault();
+    private int installParallelism = FleetInstaller.DEFAULT_PARALLELISM;
+    private int installRetries = FleetInstaller.DEFAULT_MAX_RETRIES;
+    private volatile boolean stateWatching = false;
 
-    private final Set<IDeviceStatusListener> deviceStatusListeners = Sets.newCopyOnWriteArraySet();
+    private final DeviceEventBus deviceEventBus = new DeviceEventBus();
+    private final Map<IDeviceFieldListener, IDeviceStatusListener> deviceFieldListeners = new ConcurrentHashMap<IDeviceFieldListener, IDeviceStatusListener>();
     
     public AdbManager() throws FileNotFoundException, CornerstoneADBException {
         this((String) null);
@@ -59,6 +72,8 @@ public class AdbManager {
     }
 
     public void shutdown() {
+        this.devices.getSnapshot().getDevices().forEach(AdbExecutor::stopStateWatcher);
+        this.deviceEventBus.shutdown();
         if (this.bridge != null) {
             AndroidDebugBridge.terminate();
             if (this.bridgeCreated) {
@@ -80,8 +95,8 @@ public class AdbManager {
 
                     waitUntilAction(() -> this.bridge.hasInitialDeviceList(), 30000, 1000, "Getting initial device list...");
                     this.getDevices();
-                    LOG.info("Found '{}' initial connected devices.", devices.size());
-                    this.devices.values().forEach(device -> LOG.trace(" |--> Serial: '{}'", device.getDeviceSerial()));
+                    LOG.info("Found '{}' initial connected devices.", devices.getSnapshot().size());
+                    this.devices.getSnapshot().getDevices().forEach(device -> LOG.trace(" |--> Serial: '{}'", device.getDeviceSerial()));
                     this.bridgeCreated = true;
                 }
             }
@@ -115,28 +130,155 @@ public class AdbManager {
         }
     }
     
+    public enum DeviceStatus {
+        // Device registered, only its connection state is known
+        CONNECTED,
+        // Registered device came back online
+        ONLINE,
+        // Registered device went offline or unauthorized
+        OFFLINE,
+        // Device info has been fetched from the device, raised again whenever a refresh changes it
+        DETAILS_READY,
+        DISCONNECTED
+    }
+
+    /**
+     * Device status listeners are called on a dispatch thread of their own, never on the ddmlib thread. Every status
+     * change of a device is delivered in order, only repeated events of the same status (e.g. DETAILS_READY) which
+     * the listener did not get to yet are combined into one.
+     */
     public interface IDeviceStatusListener {
         void deviceStatusChanged(@NonNull DeviceDO device);
+
+        default void deviceStatusChanged(@NonNull DeviceDO device, @NonNull DeviceStatus status) {
+            deviceStatusChanged(device);
+        }
+
+        default void deviceStatusChanged(@NonNull DeviceStatusEvent event) {
+            deviceStatusChanged(event.getDevice(), event.getStatus());
+        }
     }
     
     public void addDeviceStatusListener(@NonNull IDeviceStatusListener listener) {
-        deviceStatusListeners.add(listener);
+        deviceEventBus.addListener(listener);
     }
 
     public void removeDeviceStatusListener(IDeviceStatusListener listener) {
-        deviceStatusListeners.remove(listener);
+        deviceEventBus.removeListener(listener);
     }
 
-    private void updateDeviceStatusListener(AdbExecutor deviceExecutor) {
-        for (IDeviceStatusListener listener : deviceStatusListeners) {
-            try {
-                listener.deviceStatusChanged(deviceExecutor.getDeviceInfo());
-            } catch (Exception e) {
-                // Catch possible exception thrown by listeners
-                LOG.debug("Exception thrown by device status listener");
+    public interface IDeviceFieldListener {
+        void deviceFieldsChanged(@NonNull DeviceDO device, @NonNull DeviceDelta delta);
+    }
+
+    /**
+     * Adds a listener for changes of the given device fields only, or of any field if none are given. The delta
+     * passed to the listener only contains the subscribed fields.
+     */
+    public void addDeviceFieldListener(@NonNull IDeviceFieldListener listener, DeviceField... fields) {
+        Set<DeviceField> subscribedFields = fields.length == 0 ? EnumSet.allOf(DeviceField.class) : EnumSet.copyOf(Arrays.asList(fields));
+        IDeviceStatusListener statusListener = new IDeviceStatusListener() {
+            @Override
+            public void deviceStatusChanged(DeviceDO device) {
+            }
+
+            @Override
+            public void deviceStatusChanged(DeviceStatusEvent event) {
+                if (event.getDelta() != null) {
+                    DeviceDelta delta = event.getDelta().filter(subscribedFields);
+                    if (!delta.isEmpty()) {
+                        listener.deviceFieldsChanged(event.getDevice(), delta);
+                    }
+                }
+            }
+        };
+        IDeviceStatusListener replaced = deviceFieldListeners.put(listener, statusListener);
+        if (replaced != null) {
+            deviceEventBus.removeListener(replaced);
+        }
+        deviceEventBus.addListener(statusListener);
+    }
+
+    public void removeDeviceFieldListener(IDeviceFieldListener listener) {
+        IDeviceStatusListener statusListener = deviceFieldListeners.remove(listener);
+        if (statusListener != null) {
+            deviceEventBus.removeListener(statusListener);
+        }
+    }
+
+    private void updateDeviceStatusListener(DeviceDO device, DeviceStatus status) {
+        deviceEventBus.publish(new DeviceStatusEvent(device.getSerialNumber(), status, device));
+    }
+
+    /**
+     * Re-indexes the registered device with its new device info and announces the changed fields. Changes of
+     * devices which have been removed or replaced meanwhile are dropped.
+     */
+    private void updateDeviceStatusListener(AdbExecutor device, DeviceDO deviceInfo, DeviceStatus status) {
+        DeviceDO previousDeviceInfo = devices.update(device, deviceInfo);
+        if (previousDeviceInfo == null) {
+            return;
+        }
+        DeviceDelta delta = DeviceDelta.between(previousDeviceInfo, deviceInfo);
+        if (status != DeviceStatus.DETAILS_READY || !delta.isEmpty()) {
+            deviceEventBus.publish(new DeviceStatusEvent(device.getDeviceSerial(), status, deviceInfo, delta));
+        }
+    }
+
+    public boolean isStateWatching() {
+        return this.stateWatching;
+    }
+
+    /**
+     * Enables watching wifi, mobile data, airplane mode and bluetooth settings of all registered devices. Changes of
+     * those settings are then pushed by the devices and announced as {@link DeviceStatus#DETAILS_READY} right away,
+     * instead of being polled on the next refresh.
+     */
+    public void setStateWatching(boolean stateWatching) {
+        this.stateWatching = stateWatching;
+        for (AdbExecutor device : this.devices.getSnapshot().getDevices()) {
+            if (stateWatching) {
+                this.startStateWatcher(device);
+            } else {
+                device.stopStateWatcher();
             }
         }
     }
+
+    private void startStateWatcher(AdbExecutor device) {
+        device.startStateWatcher(deviceInfo -> updateDeviceStatusListener(device, deviceInfo, DeviceStatus.DETAILS_READY));
+    }
+
+    private AdbExecutor newAdbExecutor(IDevice device) {
+        AdbExecutor deviceAdbExecutor = new AdbExecutor(device.getSerialNumber(), device);
+        deviceAdbExecutor.setScheduler(this.scheduler);
+        return deviceAdbExecutor;
+    }
+
+    private void registerDevice(IDevice device) {
+        this.registerDevice(device, DeviceStatus.CONNECTED);
+    }
+
+    private void registerDevice(IDevice device, DeviceStatus status) {
+        // Register and announce the device right away, details are fetched off the ddmlib listener thread
+        AdbExecutor deviceAdbExecutor = this.newAdbExecutor(device);
+        AdbExecutor replacedDevice = devices.put(deviceAdbExecutor);
+        if (replacedDevice != null) {
+            replacedDevice.stopStateWatcher();
+            replacedDevice.closeShellSession();
+        }
+        updateDeviceStatusListener(deviceAdbExecutor.getDeviceStatus(), status);
+        if (this.stateWatching) {
+            this.startStateWatcher(deviceAdbExecutor);
+        }
+
+        this.refresh(deviceAdbExecutor, DEFAULT_REFRESH_TIMEOUT_MS, TimeUnit.MILLISECONDS).whenComplete((deviceDO, error) -> {
+            if (error != null) {
+                LOG.warn("'{}' fetching details of connected device. Error: '{}'", error.getClass().getSimpleName(), error.getMessage());
+                LOG.trace("'{}' fetching details of connected device: '{}'", error.getClass().getSimpleName(), device.getSerialNumber(), error);
+            }
+        });
+    }
     
     private IDeviceChangeListener getDeviceChangeListener() {
         return new IDeviceChangeListener() {
@@ -146,59 +288,96 @@ public class AdbManager {
                 LOG.info("Device disconnected");
                 LOG.trace("Device with serial '{}' disconnected.", device.getSerialNumber());
                 AdbExecutor removedDevice = devices.remove(device.getSerialNumber());
-                updateDeviceStatusListener(removedDevice);
+                if (removedDevice != null) {
+                    removedDevice.stopStateWatcher();
+                    removedDevice.closeShellSession();
+                }
+                updateDeviceStatusListener(removedDevice == null ? getUnregisteredDeviceStatus(device) : removedDevice.getDeviceStatus(),
+                        DeviceStatus.DISCONNECTED);
             }
 
             @Override
             public void deviceConnected(IDevice device) {
                 LOG.info("Device connected");
                 LOG.trace("Device with serial '{}' connected.", device.getSerialNumber());
-                AdbExecutor deviceAdbExecutor = new AdbExecutor(device.getSerialNumber(), device);
-                deviceAdbExecutor.getDeviceInfo();
-                devices.put(device.getSerialNumber(), deviceAdbExecutor);
-                updateDeviceStatusListener(deviceAdbExecutor);
+                registerDevice(device);
             }
 
             @Override
             public void deviceChanged(IDevice device, int changeMask) {
                 LOG.debug("Changed device event detected on Device. ChangeMask: {}", changeMask);
                 LOG.trace("Changed device event detected on Device with serial '{}'. ChangeMask: {}", device.getSerialNumber(), changeMask);
+                AdbExecutor existingDevice = devices.getDevice(device.getSerialNumber());
+                if (existingDevice != null && (changeMask & (IDevice.CHANGE_STATE | IDevice.CHANGE_BUILD_INFO)) != 0) {
+                    existingDevice.invalidateDeviceInfoCache();
+                }
                 if (IDevice.CHANGE_STATE == changeMask && device.isOnline()) {
                     LOG.info("Device state changed to 'ONLINE'");
                     LOG.trace("Device: '{}' state changed to 'ONLINE'", device.getSerialNumber());
-                    AdbExecutor deviceAdbExecutor = new AdbExecutor(device.getSerialNumber(), device);
-                    deviceAdbExecutor.getDeviceInfo();
-                    devices.put(device.getSerialNumber(), deviceAdbExecutor);
-                    updateDeviceStatusListener(deviceAdbExecutor);
+                    registerDevice(device, existingDevice == null ? DeviceStatus.CONNECTED : DeviceStatus.ONLINE);
+                } else if ((changeMask & IDevice.CHANGE_STATE) != 0 && existingDevice != null) {
+                    LOG.info("Device state changed to '{}'", device.getState());
+                    LOG.trace("Device: '{}' state changed to '{}'", device.getSerialNumber(), device.getState());
+                    updateDeviceStatusListener(existingDevice, existingDevice.getDeviceStatus(), DeviceStatus.OFFLINE);
                 }
             }
         };
     }
 
+    /**
+     * Status of a device which disconnected before it was registered.
+     */
+    private static DeviceDO getUnregisteredDeviceStatus(IDevice device) {
+        DeviceDO deviceStatus = new DeviceDO();
+        deviceStatus.setSerialNumber(device.getSerialNumber());
+        deviceStatus.setState(device.getState() == null ? null : device.getState().name().toLowerCase());
+        deviceStatus.setOnline(false);
+        return deviceStatus;
+    }
+
+    /**
+     * Returns the devices of the current registry snapshot. The returned list is immutable.
+     */
     public List<AdbExecutor> getDevices() throws CornerstoneADBException {
-        if (devices == null || devices.isEmpty()) {
-            this.devices = this.getFilteredDevices(null);
-        }
+        return this.getDeviceSnapshot().getDevices();
+    }
 
-        return new ArrayList<AdbExecutor>(this.devices.values());
+    /**
+     * Returns the current immutable snapshot of the device registry, loading the initial device list on first use.
+     * Later changes are tracked by the device change listener.
+     */
+    public DeviceRegistry.Snapshot getDeviceSnapshot() throws CornerstoneADBException {
+        if (!this.devicesLoaded) {
+            synchronized (this.devicesLoadLock) {
+                if (!this.devicesLoaded) {
+                    // Devices registered by the change listener meanwhile are newer, those are kept
+                    this.devices.putAllAbsent(this.getFilteredDevices(null).values());
+                    this.devicesLoaded = true;
+                    if (this.stateWatching) {
+                        this.devices.getSnapshot().getDevices().forEach(this::startStateWatcher);
+                    }
+                }
+            }
+        }
+        return this.devices.getSnapshot();
     }
 
     public AdbExecutor getDevice(String deviceSerial) throws CornerstoneADBException {
-        Optional<AdbExecutor> foundDevice = this.devices.values().stream().filter(device -> device.getDeviceSerial().equals(deviceSerial)).findFirst();
-        if (foundDevice.isPresent()) {
-            return foundDevice.get();
+        AdbExecutor foundDevice = this.getDeviceSnapshot().getDevice(deviceSerial);
+        if (foundDevice != null) {
+            return foundDevice;
         }
 
         Map<String, AdbExecutor> filteredDevice = getFilteredDevices(Arrays.asList(deviceSerial));
-        if (devices == null || devices.isEmpty()) {
+        if (filteredDevice.isEmpty()) {
             return null;
         }
 
-        this.devices.putAll(filteredDevice);
-        return this.devices.get(deviceSerial);
+        this.devices.putAllAbsent(filteredDevice.values());
+        return this.devices.getDevice(deviceSerial);
     }
 
-    private ConcurrentHashMap<String, AdbExecutor> getFilteredDevices(Collection<String> deviceFilter) throws CornerstoneADBException {
+    private Map<String, AdbExecutor> getFilteredDevices(Collection<String> deviceFilter) throws CornerstoneADBException {
         final ConcurrentHashMap<String, AdbExecutor> filteredDevices = new ConcurrentHashMap<String, AdbExecutor>();
 //        for (IDevice device : bridge.getDevices()) {
 //            if (deviceFilter == null || deviceFilter.contains(device.getSerialNumber())) {
@@ -206,18 +385,141 @@ public class AdbManager {
 //            }
 //        }
 
-        Stream.of(this.getBridge().getDevices())
+        List<CompletableFuture<DeviceDO>> refreshes = Stream.of(this.getBridge().getDevices())
                 .filter(device -> (deviceFilter == null || deviceFilter.contains(device.getSerialNumber())))
-                .parallel()
-                .forEach((device) -> {
-                    LOG.trace("**** Processing Device: '{}' in Thread: '{}'", device.getSerialNumber(), Thread.currentThread());
-                    AdbExecutor deviceAdbExecutor = new AdbExecutor(device.getSerialNumber(), device);
-                    deviceAdbExecutor.getDeviceInfo();
+                .map(device -> {
+                    AdbExecutor deviceAdbExecutor = this.newAdbExecutor(device);
                     filteredDevices.put(device.getSerialNumber(), deviceAdbExecutor);
-                    LOG.trace("**** Finished Processing Device: '{}' in Thread: '{}'", device.getSerialNumber(), Thread.currentThread());
-                });
+                    return this.refresh(deviceAdbExecutor, DEFAULT_REFRESH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                })
+                .collect(Collectors.toList());
+
+        // Wait for the initial device info, a failed refresh leaves the device with basic info only
+        CompletableFuture.allOf(refreshes.toArray(new CompletableFuture<?>[0])).exceptionally(error -> null).join();
 
         return filteredDevices;
     }
 
-}
\ No newline at end of file
+    // -----------------------------------------------------------------------
+    // Asynchronous refresh
+    // -----------------------------------------------------------------------
+    public Map<String, CompletableFuture<DeviceDO>> refreshAll() throws CornerstoneADBException {
+        return this.refreshAll(DEFAULT_REFRESH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes device info of all devices on the device scheduler. Each device gets its own future which
+     * completes independently of the others, or exceptionally once the given per device deadline has passed.
+     */
+    public Map<String, CompletableFuture<DeviceDO>> refreshAll(long timeout, TimeUnit timeUnit) throws CornerstoneADBException {
+        Map<String, CompletableFuture<DeviceDO>> refreshes = new HashMap<String, CompletableFuture<DeviceDO>>();
+        for (AdbExecutor device : this.getDevices()) {
+            refreshes.put(device.getDeviceSerial(), this.refresh(device, timeout, timeUnit));
+        }
+        return refreshes;
+    }
+
+    private CompletableFuture<DeviceDO> refresh(AdbExecutor device, long timeout, TimeUnit timeUnit) {
+        try {
+            CompletableFuture<DeviceDO> request = device.getDeviceInfoAsync(this.scheduler.forDevice(device.getDeviceSerial()), timeout, timeUnit);
+            // Keep the registry's indexes in line with the latest device info and announce what changed
+            request.thenAccept(deviceInfo -> this.updateDeviceStatusListener(device, deviceInfo, DeviceStatus.DETAILS_READY));
+            return request;
+        } catch (RejectedExecutionException e) {
+            LOG.warn("Device info refresh rejected, too many refreshes pending.");
+            LOG.trace("Device info refresh rejected for device: '{}'", device.getDeviceSerial());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    // -----------------------------------------------------------------------
+    // Fleet package operations
+    // -----------------------------------------------------------------------
+    public Map<String, InstallResult> installPackage(String localPackagePath, boolean reinstall) throws CornerstoneADBException {
+        return this.installPackage(localPackagePath, reinstall, null);
+    }
+
+    /**
+     * Installs the local package on the given devices, or on all devices if no serials are given. The package is
+     * pushed and installed on at most {@link #getInstallParallelism()} devices at the same time, transient errors
+     * are retried up to {@link #getInstallRetries()} times. Returns once every device has finished.
+     *
+     * @return the result of every device, keyed by device serial
+     */
+    public Map<String, InstallResult> installPackage(String localPackagePath, boolean reinstall, Collection<String> deviceSerials)
+            throws CornerstoneADBException {
+        LOG.info("Installing package: '{}' on '{}' devices", localPackagePath, deviceSerials == null ? "all" : deviceSerials.size());
+        return this.getFleetInstaller().run(this.getDevices(deviceSerials), device -> device.installLocalPackage(localPackagePath, reinstall));
+    }
+
+    public Map<String, InstallResult> uninstallPackage(String packageName) throws CornerstoneADBException {
+        return this.uninstallPackage(packageName, null);
+    }
+
+    /**
+     * Uninstalls the package from the given devices, or from all devices if no serials are given.
+     *
+     * @return the result of every device, keyed by device serial
+     */
+    public Map<String, InstallResult> uninstallPackage(String packageName, Collection<String> deviceSerials) throws CornerstoneADBException {
+        LOG.info("Uninstalling package: '{}' from '{}' devices", packageName, deviceSerials == null ? "all" : deviceSerials.size());
+        return this.getFleetInstaller().run(this.getDevices(deviceSerials), device -> {
+            String error = device.tryUninstallPackage(packageName);
+            if (error != null) {
+                throw new InstallException(error);
+            }
+        });
+    }
+
+    private List<AdbExecutor> getDevices(Collection<String> deviceSerials) throws CornerstoneADBException {
+        if (deviceSerials == null) {
+            return this.getDevices();
+        }
+
+        List<AdbExecutor> filteredDevices = new ArrayList<AdbExecutor>();
+        for (String deviceSerial : deviceSerials) {
+            AdbExecutor device = this.getDevice(deviceSerial);
+            if (device != null) {
+                filteredDevices.add(device);
+            }
+        }
+        return filteredDevices;
+    }
+
+    private FleetInstaller getFleetInstaller() {
+        return new FleetInstaller(this.scheduler, this.installParallelism, this.installRetries);
+    }
+
+    public int getInstallParallelism() {
+        return this.installParallelism;
+    }
+
+    /**
+     * Sets the max number of devices a fleet install or uninstall works on at the same time. The scheduler's max
+     * concurrency is an upper bound as well.
+     */
+    public void setInstallParallelism(int installParallelism) {
+        this.installParallelism = installParallelism;
+    }
+
+    public int getInstallRetries() {
+        return this.installRetries;
+    }
+
+    public void setInstallRetries(int installRetries) {
+        this.installRetries = installRetries;
+    }
+
+    public DeviceScheduler getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Sets the scheduler running all background work of the managed devices, including devices already registered.
+     */
+    public void setScheduler(@NonNull DeviceScheduler scheduler) {
+        this.scheduler = scheduler;
+        this.devices.getSnapshot().getDevices().forEach(device -> device.setScheduler(scheduler));
+    }
+
+}
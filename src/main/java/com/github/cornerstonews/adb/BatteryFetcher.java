@@ -3,7 +3,9 @@ package com.github.cornerstonews.adb;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,255 +13,267 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.android.annotations.NonNull;
-import com.android.annotations.Nullable;
-import com.android.ddmlib.IDevice;
 import com.android.ddmlib.MultiLineReceiver;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 
+/**
+ * Fetches the battery state of a device with a single 'dumpsys battery' per query. Level, health and temperature
+ * requests waiting at the same time all complete from the same sample.
+ *
+ * The query runs on a scheduler worker with the shell limits of the {@link AdbExecutor}, callers bound their wait
+ * on the returned future.
+ */
 public class BatteryFetcher {
     private static final Logger LOG = LogManager.getLogger(BatteryFetcher.class);
 
-    private static final Pattern BATTERY_HEALTH_LEVEL = Pattern.compile("\\s*health: (\\d+)");
-    private static final Pattern BATTERY_TEMP_LEVEL = Pattern.compile("\\s*temperature: (\\d+)");
+    private static final Pattern DUMPSYS_VALUE = Pattern.compile("\\s*([\\w ]+): (.+?)\\s*");
 
-    private final IDevice mDevice;
-    private long mLastSuccessTime;
-    private Integer mBatteryHealthLevel;
-    private Integer mBatteryTempLevel;
-    private SettableFuture<String> mPendingHealthRequest;
-    private SettableFuture<Double> mPendingTempRequest;
+    private final AdbExecutor mAdbExecutor;
+    private volatile DeviceScheduler mScheduler = DeviceScheduler.getDefault();
+    private BatterySample mLastSample;
+    private SettableFuture<BatterySample> mPendingRequest;
 
-    public BatteryFetcher(IDevice device) {
-        mDevice = device;
+    public BatteryFetcher(AdbExecutor adbExecutor) {
+        mAdbExecutor = adbExecutor;
     }
 
-    public synchronized Future<String> getBatteryHealth(long freshness, TimeUnit timeUnit) {
-        SettableFuture<String> result;
-        if (mBatteryHealthLevel == null || isFetchRequired(freshness, timeUnit)) {
-            if (mPendingHealthRequest == null) {
-                // no request underway - start a new one
-                mPendingHealthRequest = SettableFuture.create();
-                initiateBatteryQuery();
-            } else {
-                // fall through - return the already created future from the request already
-                // underway
-            }
-            result = mPendingHealthRequest;
-        } else {
-            // cache is populated within desired freshness
-            result = SettableFuture.create();
-            result.set(getBatteryHealthString());
-        }
-        return result;
+    public void setScheduler(DeviceScheduler scheduler) {
+        mScheduler = scheduler;
     }
 
-    public synchronized Future<Double> getBatteryTemperature(long freshness, TimeUnit timeUnit) {
-        SettableFuture<Double> result;
-        if (mBatteryTempLevel == null || isFetchRequired(freshness, timeUnit)) {
-            if (mPendingTempRequest == null) {
-                // no request underway - start a new one
-                mPendingTempRequest = SettableFuture.create();
-                initiateBatteryQuery();
-            } else {
-                // fall through - return the already created future from the request already
-                // underway
+    /**
+     * Returns the battery state, querying the device only if the last sample is older than the given freshness.
+     */
+    public Future<BatterySample> getBatterySample(long freshness, TimeUnit timeUnit) {
+        SettableFuture<BatterySample> result;
+        synchronized (this) {
+            if (mLastSample != null && !isFetchRequired(freshness, timeUnit)) {
+                // cache is populated within desired freshness
+                return Futures.immediateFuture(mLastSample);
             }
-            result = mPendingTempRequest;
-        } else {
-            // cache is populated within desired freshness
-            result = SettableFuture.create();
-            result.set(getConvertedBatteryTemperature());
+            if (mPendingRequest != null) {
+                // return the future of the request already underway
+                return mPendingRequest;
+            }
+            // no request underway - start a new one
+            mPendingRequest = SettableFuture.create();
+            // keep a reference, the query may complete and clear the pending request before returning
+            result = mPendingRequest;
         }
+        // Outside the lock, callers wanting a cached sample must not wait on the query being submitted
+        initiateBatteryQuery();
         return result;
     }
 
-    private String getBatteryHealthString() {
-        String health;
-        switch (mBatteryHealthLevel) {
-        case 2:
-            health = "GOOD";
-            break;
-
-        case 3:
-            health = "OVERHEAT";
-            break;
-
-        case 4:
-            health = "DEAD";
-            break;
-
-        case 5:
-            health = "OVER_VOLTAGE";
-            break;
-
-        case 6:
-            health = "UNSPECIFIED_FAILURE";
-            break;
-
-        case 7:
-            health = "COLD";
-            break;
+    public Future<Integer> getBatteryLevel(long freshness, TimeUnit timeUnit) {
+        return getSampleValue(freshness, timeUnit, BatterySample::getLevel);
+    }
 
-        case 1:
-        default:
-            health = "UNKNOWN";
-        }
+    public Future<String> getBatteryHealth(long freshness, TimeUnit timeUnit) {
+        return getSampleValue(freshness, timeUnit, BatterySample::getHealth);
+    }
 
-        return health;
+    public Future<Double> getBatteryTemperature(long freshness, TimeUnit timeUnit) {
+        return getSampleValue(freshness, timeUnit, BatterySample::getTemperature);
     }
 
-    private Double getConvertedBatteryTemperature() {
-        // https://android.googlesource.com/platform/tools/tradefederation/+/refs/heads/master/src/com/android/tradefed/device/BatteryTemperature.java
-        return mBatteryTempLevel / 10.0;
+    private <T> Future<T> getSampleValue(long freshness, TimeUnit timeUnit, Function<BatterySample, T> value) {
+        return Futures.lazyTransform(getBatterySample(freshness, timeUnit), value::apply);
     }
 
     private boolean isFetchRequired(long freshness, TimeUnit timeUnit) {
         long freshnessMs = timeUnit.toMillis(freshness);
-        return (System.currentTimeMillis() - mLastSuccessTime) > freshnessMs;
+        return (System.currentTimeMillis() - mLastSample.getTimestamp()) > freshnessMs;
     }
 
     private void initiateBatteryQuery() {
-        Thread fetchThread = new Thread() {
+        Runnable fetchTask = new Runnable() {
             @Override
             public void run() {
                 Throwable exception;
                 try {
-                    // first try to get it from sysfs
-                    SysFsBatteryHealthReceiver sysBattHealthReceiver = new SysFsBatteryHealthReceiver();
-                    mDevice.executeShellCommand("cat /sys/class/power_supply/battery/health", sysBattHealthReceiver, 2000, TimeUnit.MILLISECONDS);
-                    boolean batteryHealthReceived = setBatteryHealthLevel(sysBattHealthReceiver.getBatteryHealthLevel());
-                    if (!batteryHealthReceived) {
-                        // failed! try dumpsys
-                        DumpSysBatteryReceiver healthReceiver = new DumpSysBatteryReceiver(BATTERY_HEALTH_LEVEL);
-                        mDevice.executeShellCommand("dumpsys battery", healthReceiver, 2000, TimeUnit.MILLISECONDS);
-                        batteryHealthReceived = setBatteryHealthLevel(healthReceiver.getBatteryLevel());
-
-                    }
-
-                    // Get temp from sysfs
-                    SysFsBatteryTempReceiver sysBattTempReceiver = new SysFsBatteryTempReceiver();
-                    mDevice.executeShellCommand("cat /sys/class/power_supply/battery/temp", sysBattHealthReceiver, 2000, TimeUnit.MILLISECONDS);
-                    boolean batteryTempReceived = setBatteryTempLevel(sysBattTempReceiver.getBatteryTempLevel());
-                    if (!batteryTempReceived) {
-                        // failed! try dumpsys
-                        DumpSysBatteryReceiver tempReceiver = new DumpSysBatteryReceiver(BATTERY_TEMP_LEVEL);
-                        mDevice.executeShellCommand("dumpsys battery", tempReceiver, 2000, TimeUnit.MILLISECONDS);
-                        batteryTempReceived = setBatteryTempLevel(tempReceiver.getBatteryLevel());
-
+                    DumpSysBatteryReceiver receiver = new DumpSysBatteryReceiver();
+                    String output = mAdbExecutor.executeShellCommand("dumpsys battery");
+                    if (output != null) {
+                        receiver.processNewLines(output.split("\\r?\\n"));
                     }
-
-                    if (batteryHealthReceived && batteryTempReceived) {
+                    BatterySample sample = receiver.getSample();
+                    if (sample.getLevel() != null || sample.getHealth() != null || sample.getTemperature() != null) {
+                        setBatterySample(sample);
                         return;
                     }
 
-                    exception = new IOException("Unrecognized response to battery level queries");
+                    exception = new IOException("Unrecognized response to battery query");
                 } catch (Throwable e) {
                     exception = e;
                 }
-                handleBatteryLevelFailure(exception);
+                handleBatteryQueryFailure(exception);
             }
         };
-        fetchThread.setDaemon(true);
-        fetchThread.start();
-    }
-
-    private synchronized boolean setBatteryHealthLevel(Integer batteryHealthLevel) {
-        if (batteryHealthLevel == null) {
-            return false;
-        }
-        mLastSuccessTime = System.currentTimeMillis();
-        mBatteryHealthLevel = batteryHealthLevel;
-        if (mPendingHealthRequest != null) {
-            mPendingHealthRequest.set(getBatteryHealthString());
+        try {
+            // Not nested, run inline on a worker the query would ignore the deadline its caller waits with.
+            // Not on the device lane either, a caller running on the lane would wait on itself.
+            mScheduler.execute(fetchTask);
+        } catch (RejectedExecutionException e) {
+            handleBatteryQueryFailure(e);
         }
-        mPendingHealthRequest = null;
-        return true;
     }
 
-    private synchronized boolean setBatteryTempLevel(Integer batteryTempLevel) {
-        if (batteryTempLevel == null) {
-            return false;
-        }
-        mLastSuccessTime = System.currentTimeMillis();
-        mBatteryTempLevel = batteryTempLevel;
-        if (mPendingTempRequest != null) {
-            mPendingTempRequest.set(getConvertedBatteryTemperature());
+    private synchronized void setBatterySample(BatterySample sample) {
+        mLastSample = sample;
+        if (mPendingRequest != null) {
+            mPendingRequest.set(sample);
         }
-        mPendingTempRequest = null;
-        return true;
+        mPendingRequest = null;
     }
 
-    static final class SysFsBatteryHealthReceiver extends MultiLineReceiver {
-        private static final Pattern BATTERY_HEALTH_LEVEL = Pattern.compile("^(\\d+)[.\\s]*");
-        private Integer mBatteryHealthLevel;
-
-        public Integer getBatteryHealthLevel() {
-            return mBatteryHealthLevel;
-        }
-
-        @Override
-        public boolean isCancelled() {
-            return false;
+    private synchronized void handleBatteryQueryFailure(Throwable e) {
+        LOG.warn("'{}' getting battery state for device. Error: '{}'", e.getClass().getSimpleName(), e.getMessage());
+        LOG.trace("'{}' getting battery state for device: '{}'", e.getClass().getSimpleName(), mAdbExecutor.getDeviceSerial(), e);
+        if (mPendingRequest != null) {
+            if (!mPendingRequest.setException(e)) {
+                // should never happen
+                LOG.error("Future.setException failed");
+                mPendingRequest.set(null);
+            }
         }
+        mPendingRequest = null;
+    }
 
-        @Override
-        public void processNewLines(@NonNull String[] lines) {
-            Arrays.stream(lines).forEach(line -> {
-                Matcher batteryMatch = BATTERY_HEALTH_LEVEL.matcher(line);
-                if (batteryMatch.matches() && mBatteryHealthLevel == null) {
-                    mBatteryHealthLevel = Integer.parseInt(batteryMatch.group(1));
-                }
-            });
+    static String getBatteryHealthString(int healthLevel) {
+        switch (healthLevel) {
+        case 2:
+            return "GOOD";
+        case 3:
+            return "OVERHEAT";
+        case 4:
+            return "DEAD";
+        case 5:
+            return "OVER_VOLTAGE";
+        case 6:
+            return "UNSPECIFIED_FAILURE";
+        case 7:
+            return "COLD";
+        case 1:
+        default:
+            return "UNKNOWN";
         }
     }
 
-    static final class SysFsBatteryTempReceiver extends MultiLineReceiver {
-        private static final Pattern BATTERY_TEMP_LEVEL = Pattern.compile("^(\\d+)[.\\s]*");
-        private Integer mBatteryTempLevel;
-
-        public Integer getBatteryTempLevel() {
-            return mBatteryTempLevel;
+    static String getBatteryStatusString(int status) {
+        switch (status) {
+        case 2:
+            return "CHARGING";
+        case 3:
+            return "DISCHARGING";
+        case 4:
+            return "NOT_CHARGING";
+        case 5:
+            return "FULL";
+        case 1:
+        default:
+            return "UNKNOWN";
         }
+    }
 
-        @Override
-        public boolean isCancelled() {
-            return false;
+    /**
+     * Parses all values of interest from the 'dumpsys battery' output, e.g.
+     *
+     * <pre>
+     *   AC powered: false
+     *   USB powered: true
+     *   status: 2
+     *   health: 2
+     *   level: 85
+     *   scale: 100
+     *   voltage: 4231
+     *   temperature: 253
+     * </pre>
+     */
+    static final class DumpSysBatteryReceiver extends MultiLineReceiver {
+        private Integer mLevel;
+        private Integer mScale;
+        private Integer mHealth;
+        private Integer mTemperature;
+        private Integer mVoltage;
+        private Integer mStatus;
+        private String mPlugType;
+
+        public BatterySample getSample() {
+            BatterySample sample = new BatterySample();
+            sample.setTimestamp(System.currentTimeMillis());
+            if (mLevel != null) {
+                sample.setLevel(mScale == null || mScale <= 0 ? mLevel : mLevel * 100 / mScale);
+            }
+            if (mHealth != null) {
+                sample.setHealth(getBatteryHealthString(mHealth));
+            }
+            if (mTemperature != null) {
+                // https://android.googlesource.com/platform/tools/tradefederation/+/refs/heads/master/src/com/android/tradefed/device/BatteryTemperature.java
+                sample.setTemperature(mTemperature / 10.0);
+            }
+            sample.setVoltage(mVoltage);
+            if (mStatus != null) {
+                sample.setStatus(getBatteryStatusString(mStatus));
+            }
+            // Only set once a 'powered' line has been seen
+            sample.setPlugType(mPlugType);
+            return sample;
         }
 
         @Override
         public void processNewLines(@NonNull String[] lines) {
             Arrays.stream(lines).forEach(line -> {
-                Matcher batteryMatch = BATTERY_TEMP_LEVEL.matcher(line);
-                if (batteryMatch.matches() && mBatteryTempLevel == null) {
-                    mBatteryTempLevel = Integer.parseInt(batteryMatch.group(1));
+                Matcher valueMatch = DUMPSYS_VALUE.matcher(line);
+                if (valueMatch.matches()) {
+                    this.setValue(valueMatch.group(1), valueMatch.group(2));
                 }
             });
         }
-    }
-
-    private final class DumpSysBatteryReceiver extends MultiLineReceiver {
-        private Integer mBatteryLevel;
-        private Pattern matcher;
-
-        public DumpSysBatteryReceiver(Pattern matcher) {
-            this.matcher = matcher;
-        }
 
-        /**
-         * Returns the parsed percent battery level, or null if not available.
-         */
-        public @Nullable Integer getBatteryLevel() {
-            return mBatteryLevel;
+        private void setValue(String key, String value) {
+            switch (key) {
+            case "level":
+                mLevel = parseInt(value);
+                break;
+            case "scale":
+                mScale = parseInt(value);
+                break;
+            case "health":
+                mHealth = parseInt(value);
+                break;
+            case "temperature":
+                mTemperature = parseInt(value);
+                break;
+            case "voltage":
+                mVoltage = parseInt(value);
+                break;
+            case "status":
+                mStatus = parseInt(value);
+                break;
+            case "AC powered":
+            case "USB powered":
+            case "Wireless powered":
+            case "Dock powered":
+                if ("true".equals(value)) {
+                    mPlugType = key.substring(0, key.indexOf(' ')).toUpperCase();
+                } else if (mPlugType == null) {
+                    mPlugType = "NONE";
+                }
+                break;
+            default:
+                break;
+            }
         }
 
-        @Override
-        public void processNewLines(@NonNull String[] lines) {
-            Arrays.stream(lines).forEach(line -> {
-                Matcher batteryMatch = matcher.matcher(line);
-                if (batteryMatch.matches()) {
-                    mBatteryLevel = Integer.parseInt(batteryMatch.group(1));
-                }
-            });
+        private static Integer parseInt(String value) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
         }
 
         @Override
@@ -267,26 +281,4 @@ public class BatteryFetcher {
             return false;
         }
     }
-
-    private synchronized void handleBatteryLevelFailure(Throwable e) {
-        LOG.warn("'{}' getting battery level for device. Error: '{}'", e.getClass().getSimpleName(), e.getMessage());
-        LOG.trace("'{}' getting battery level for device: '{}'", e.getClass().getSimpleName(), mDevice.getSerialNumber(), e);
-        if (mPendingHealthRequest != null) {
-            if (!mPendingHealthRequest.setException(e)) {
-                // should never happen
-                LOG.error("Future.setException failed");
-                mPendingHealthRequest.set(null);
-            }
-        }
-        mPendingHealthRequest = null;
-
-        if (mPendingTempRequest != null) {
-            if (!mPendingTempRequest.setException(e)) {
-                // should never happen
-                LOG.error("Future.setException failed");
-                mPendingTempRequest.set(null);
-            }
-        }
-        mPendingTempRequest = null;
-    }
 }
@@ -0,0 +1,139 @@
+package com.github.cornerstonews.adb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size history of battery samples of one device. Once full, the oldest sample is overwritten.
+ *
+ * Samples are kept in primitive arrays, one slot per sample, so a history of N samples takes about 20 * N bytes
+ * whatever the number of samples added. Values the device didn't report are stored as NaN and left out of
+ * statistics.
+ */
+public class BatteryHistory {
+
+    private final long[] timestamps;
+    private final float[] levels;
+    private final float[] temperatures;
+    private final float[] voltages;
+    // Slot the next sample goes to
+    private int next = 0;
+    private int size = 0;
+
+    /**
+     * Min, max and average of a metric over a time window.
+     */
+    public static final class Statistics {
+        private final int count;
+        private final double min;
+        private final double max;
+        private final double average;
+
+        private Statistics(int count, double min, double max, double average) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.average = average;
+        }
+
+        /**
+         * Returns the number of samples with a value in the window, the other values are NaN if 0.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        public double getMin() {
+            return min;
+        }
+
+        public double getMax() {
+            return max;
+        }
+
+        public double getAverage() {
+            return average;
+        }
+
+        @Override
+        public String toString() {
+            return "Statistics [count=" + count + ", min=" + min + ", max=" + max + ", average=" + average + "]";
+        }
+    }
+
+    public BatteryHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.timestamps = new long[capacity];
+        this.levels = new float[capacity];
+        this.temperatures = new float[capacity];
+        this.voltages = new float[capacity];
+    }
+
+    public synchronized void add(BatterySample sample) {
+        this.timestamps[this.next] = sample.getTimestamp();
+        this.levels[this.next] = sample.getLevel() == null ? Float.NaN : sample.getLevel();
+        this.temperatures[this.next] = sample.getTemperature() == null ? Float.NaN : sample.getTemperature().floatValue();
+        this.voltages[this.next] = sample.getVoltage() == null ? Float.NaN : sample.getVoltage();
+        this.next = (this.next + 1) % this.timestamps.length;
+        this.size = Math.min(this.size + 1, this.timestamps.length);
+    }
+
+    public int getCapacity() {
+        return this.timestamps.length;
+    }
+
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the statistics of the metric over the samples taken within the given time before now.
+     */
+    public Statistics getStatistics(BatteryMetric metric, long window, TimeUnit timeUnit) {
+        return this.getStatistics(metric, System.currentTimeMillis() - timeUnit.toMillis(window));
+    }
+
+    synchronized Statistics getStatistics(BatteryMetric metric, long sinceTimestamp) {
+        float[] values = this.getValues(metric);
+        int count = 0;
+        double min = Double.NaN;
+        double max = Double.NaN;
+        double sum = 0;
+        // Newest to oldest, stopping at the first sample outside the window
+        for (int i = 0; i < this.size; i++) {
+            int slot = Math.floorMod(this.next - 1 - i, this.timestamps.length);
+            if (this.timestamps[slot] < sinceTimestamp) {
+                break;
+            }
+            float value = values[slot];
+            if (Float.isNaN(value)) {
+                continue;
+            }
+            min = count == 0 ? value : Math.min(min, value);
+            max = count == 0 ? value : Math.max(max, value);
+            sum += value;
+            count++;
+        }
+        return new Statistics(count, min, max, count == 0 ? Double.NaN : sum / count);
+    }
+
+    /**
+     * Returns the latest value of the metric, or NaN if there is none.
+     */
+    public synchronized double getLatest(BatteryMetric metric) {
+        return this.size == 0 ? Double.NaN : this.getValues(metric)[Math.floorMod(this.next - 1, this.timestamps.length)];
+    }
+
+    private float[] getValues(BatteryMetric metric) {
+        switch (metric) {
+        case LEVEL:
+            return this.levels;
+        case TEMPERATURE:
+            return this.temperatures;
+        case VOLTAGE:
+        default:
+            return this.voltages;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.cornerstonews.adb;
+
+/**
+ * Battery values tracked by {@link BatteryHistory}.
+ */
+public enum BatteryMetric {
+    // Charge level in percent
+    LEVEL,
+    // Temperature in degrees Celsius
+    TEMPERATURE,
+    // Voltage in millivolts
+    VOLTAGE
+}
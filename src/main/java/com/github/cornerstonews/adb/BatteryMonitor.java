@@ -0,0 +1,205 @@
+package com.github.cornerstonews.adb;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.annotations.NonNull;
+import com.google.common.collect.Sets;
+
+/**
+ * Samples the battery of all devices of an {@link AdbManager} periodically into a {@link BatteryHistory} per
+ * device, and raises alerts when a value leaves its configured range.
+ *
+ * Memory is bounded by the history capacity: 500 devices at the default of 360 samples (one hour at 10 second
+ * resolution) take less than 4 MB.
+ */
+public class BatteryMonitor {
+
+    private static final Logger LOG = LogManager.getLogger(BatteryMonitor.class);
+
+    public static final long DEFAULT_INTERVAL_MS = 10 * 1000;
+    public static final int DEFAULT_HISTORY_CAPACITY = 360;
+
+    public interface IBatteryAlertListener {
+        /**
+         * Called once when a value leaves its range, and not again until it has been back within the range.
+         */
+        void batteryAlert(@NonNull String deviceSerial, @NonNull BatteryMetric metric, double value, @NonNull BatterySample sample);
+    }
+
+    private static final class Range {
+        private final double min;
+        private final double max;
+
+        private Range(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        private boolean contains(double value) {
+            return value >= min && value <= max;
+        }
+    }
+
+    private final AdbManager adbManager;
+    private final long intervalMs;
+    private final int historyCapacity;
+    private final Map<String, BatteryHistory> histories = new ConcurrentHashMap<String, BatteryHistory>();
+    // Metrics currently outside their range, per device
+    private final Map<String, Set<BatteryMetric>> activeAlerts = new ConcurrentHashMap<String, Set<BatteryMetric>>();
+    // Devices with a sample queued or running, not sampled again until it finished
+    private final Set<String> pendingSamples = ConcurrentHashMap.newKeySet();
+    private final Map<BatteryMetric, Range> alertRanges = new EnumMap<BatteryMetric, Range>(BatteryMetric.class);
+    private final Set<IBatteryAlertListener> alertListeners = Sets.newCopyOnWriteArraySet();
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> sampling;
+
+    public BatteryMonitor(AdbManager adbManager) {
+        this(adbManager, DEFAULT_INTERVAL_MS, TimeUnit.MILLISECONDS, DEFAULT_HISTORY_CAPACITY);
+    }
+
+    public BatteryMonitor(AdbManager adbManager, long interval, TimeUnit timeUnit, int historyCapacity) {
+        this.adbManager = adbManager;
+        this.intervalMs = timeUnit.toMillis(interval);
+        this.historyCapacity = historyCapacity;
+    }
+
+    public synchronized void start() {
+        if (this.timer != null) {
+            return;
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "adb-battery-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sampling = this.timer.scheduleAtFixedRate(this::sampleAll, 0, this.intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (this.timer != null) {
+            this.sampling.cancel(false);
+            this.timer.shutdown();
+            this.timer = null;
+        }
+    }
+
+    /**
+     * Returns the history of the device, or null if the device hasn't been sampled yet.
+     */
+    public BatteryHistory getHistory(String deviceSerial) {
+        return this.histories.get(deviceSerial);
+    }
+
+    /**
+     * Raises an alert whenever the metric of a device goes below min or above max.
+     */
+    public synchronized void setAlertRange(BatteryMetric metric, double min, double max) {
+        this.alertRanges.put(metric, new Range(min, max));
+    }
+
+    public synchronized void removeAlertRange(BatteryMetric metric) {
+        this.alertRanges.remove(metric);
+    }
+
+    public void addAlertListener(@NonNull IBatteryAlertListener listener) {
+        this.alertListeners.add(listener);
+    }
+
+    public void removeAlertListener(IBatteryAlertListener listener) {
+        this.alertListeners.remove(listener);
+    }
+
+    private void sampleAll() {
+        try {
+            DeviceRegistry.Snapshot devices = this.adbManager.getDeviceSnapshot();
+            // Forget devices which are gone
+            this.histories.keySet().removeIf(deviceSerial -> devices.getDevice(deviceSerial) == null);
+            this.activeAlerts.keySet().removeIf(deviceSerial -> devices.getDevice(deviceSerial) == null);
+
+            for (AdbExecutor device : devices.getOnlineDevices()) {
+                if (!this.pendingSamples.add(device.getDeviceSerial())) {
+                    LOG.debug("Previous battery sample still pending, skipping device.");
+                    LOG.trace("Previous battery sample still pending, skipping device: '{}'", device.getDeviceSerial());
+                    continue;
+                }
+                try {
+                    // Serialized with the device's other work
+                    this.adbManager.getScheduler().execute(device.getDeviceSerial(), () -> {
+                        try {
+                            this.sample(device);
+                        } finally {
+                            this.pendingSamples.remove(device.getDeviceSerial());
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    this.pendingSamples.remove(device.getDeviceSerial());
+                    LOG.debug("Battery sample rejected, too many tasks pending.");
+                    LOG.trace("Battery sample rejected for device: '{}'", device.getDeviceSerial());
+                }
+            }
+        } catch (Exception e) {
+            // Keep the timer running, an exception would cancel it
+            LOG.warn("'{}' sampling battery of devices. Error: '{}'", e.getClass().getSimpleName(), e.getMessage());
+        }
+    }
+
+    private void sample(AdbExecutor device) {
+        BatterySample sample;
+        try {
+            // Anything sampled within the last half interval is recent enough
+            sample = device.getBatterySample(this.intervalMs / 2, TimeUnit.MILLISECONDS).get(this.intervalMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            LOG.debug("'{}' sampling battery. Error: '{}'", e.getClass().getSimpleName(), e.getMessage());
+            LOG.trace("'{}' sampling battery of device: '{}'", e.getClass().getSimpleName(), device.getDeviceSerial(), e);
+            return;
+        }
+        if (sample == null) {
+            return;
+        }
+
+        BatteryHistory history = this.histories.computeIfAbsent(device.getDeviceSerial(), serial -> new BatteryHistory(this.historyCapacity));
+        history.add(sample);
+        this.checkAlerts(device.getDeviceSerial(), history, sample);
+    }
+
+    private void checkAlerts(String deviceSerial, BatteryHistory history, BatterySample sample) {
+        Map<BatteryMetric, Range> ranges;
+        synchronized (this) {
+            ranges = new EnumMap<BatteryMetric, Range>(this.alertRanges);
+        }
+        Set<BatteryMetric> alerts = this.activeAlerts.computeIfAbsent(deviceSerial, serial -> ConcurrentHashMap.newKeySet());
+        alerts.retainAll(ranges.keySet());
+        ranges.forEach((metric, range) -> {
+            double value = history.getLatest(metric);
+            if (Double.isNaN(value) || range.contains(value)) {
+                alerts.remove(metric);
+            } else if (alerts.add(metric)) {
+                LOG.info("Battery '{}' out of range: '{}'", metric, value);
+                LOG.trace("Battery '{}' out of range: '{}' on device: '{}'", metric, value, deviceSerial);
+                for (IBatteryAlertListener listener : this.alertListeners) {
+                    try {
+                        listener.batteryAlert(deviceSerial, metric, value, sample);
+                    } catch (Exception e) {
+                        // Catch possible exception thrown by listeners, the other listeners are notified anyway
+                        LOG.warn("Exception thrown by battery alert listener '{}'. Error: '{}'", listener.getClass().getName(), e.getMessage());
+                        LOG.trace("Exception thrown by battery alert listener for device: '{}'", deviceSerial, e);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.cornerstonews.adb;
+
+/**
+ * Battery state of a device as reported by a single 'dumpsys battery'. Values the device didn't report are null.
+ */
+public class BatterySample {
+
+    private Integer level;
+    private String health;
+    private Double temperature;
+    private Integer voltage;
+    private String status;
+    private String plugType;
+    private long timestamp;
+
+    public BatterySample() {
+    }
+
+    /**
+     * Returns the charge level in percent.
+     */
+    public Integer getLevel() {
+        return level;
+    }
+
+    public void setLevel(Integer level) {
+        this.level = level;
+    }
+
+    /**
+     * Returns the health, e.g. 'GOOD' or 'OVERHEAT'.
+     */
+    public String getHealth() {
+        return health;
+    }
+
+    public void setHealth(String health) {
+        this.health = health;
+    }
+
+    /**
+     * Returns the temperature in degrees Celsius.
+     */
+    public Double getTemperature() {
+        return temperature;
+    }
+
+    public void setTemperature(Double temperature) {
+        this.temperature = temperature;
+    }
+
+    /**
+     * Returns the voltage in millivolts.
+     */
+    public Integer getVoltage() {
+        return voltage;
+    }
+
+    public void setVoltage(Integer voltage) {
+        this.voltage = voltage;
+    }
+
+    /**
+     * Returns the charging status, e.g. 'CHARGING' or 'DISCHARGING'.
+     */
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    /**
+     * Returns the power source, 'AC', 'USB', 'WIRELESS', 'DOCK' or 'NONE'.
+     */
+    public String getPlugType() {
+        return plugType;
+    }
+
+    public void setPlugType(String plugType) {
+        this.plugType = plugType;
+    }
+
+    /**
+     * Returns the time the sample was taken, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "BatterySample [level=" + level + ", health=" + health + ", temperature=" + temperature + ", voltage=" + voltage + ", status=" + status
+                + ", plugType=" + plugType + ", timestamp=" + timestamp + "]";
+    }
+}
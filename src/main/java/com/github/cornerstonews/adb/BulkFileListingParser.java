@@ -0,0 +1,218 @@
+package com.github.cornerstonews.adb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Parses the output of a recursive listing line by line straight into a {@link FileNode} tree. The listing is
+ * toybox 'ls -la' output of every directory, each preceded by a 'path:' header line, see {@link #listCommand}.
+ *
+ * Lines are scanned in place instead of matched with regular expressions, only the fields of an entry are
+ * copied out. Only directories whose listing is still to come are indexed, so memory stays bounded by the
+ * resulting tree. Symbolic links are reported as files with their target in the info field.
+ *
+ * Devices before Android M list with toolbox 'ls', which has no link count and another date format, and come
+ * without 'find'. Such output is not parsed, {@link #isRecognized()} tells the caller to list another way.
+ */
+class BulkFileListingParser {
+
+    private final FileNode root;
+    private final int maxDepth;
+    private final Predicate<String> filter;
+    // Directories seen in a parent listing whose own listing has not been parsed yet
+    private final Map<String, DirectoryNode> pendingDirectories = new HashMap<String, DirectoryNode>();
+    private DirectoryNode currentDirectory;
+    private boolean rootListed = false;
+    private boolean unrecognized = false;
+
+    private static final class DirectoryNode {
+        private final FileNode node;
+        private final String path;
+        private final int depth;
+
+        private DirectoryNode(FileNode node, String path, int depth) {
+            this.node = node;
+            this.path = path;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * @param root node of the listed path, children are added to it
+     * @param maxDepth how many directory levels below the root are kept, 0 keeps only the root listing
+     * @param filter accepts the full paths of entries to keep
+     */
+    BulkFileListingParser(FileNode root, int maxDepth, Predicate<String> filter) {
+        this.root = root;
+        this.maxDepth = maxDepth;
+        this.filter = filter;
+        String rootPath = normalizePath(root.getFullPath());
+        this.pendingDirectories.put(rootPath, new DirectoryNode(root, rootPath, 0));
+    }
+
+    FileNode getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the command listing the path and the directories below it, down to the given depth. The trailing
+     * slash makes 'find' follow a path which is a symlink, e.g. '/sdcard'.
+     */
+    static String listCommand(String path, int maxDepth) {
+        return "find " + AdbExecutor.shellQuote(path + "/") + (maxDepth < Integer.MAX_VALUE ? " -maxdepth " + Math.max(0, maxDepth) : "")
+                + " -type d -exec sh -c 'for d; do echo \"$d:\"; ls -la \"$d\"; done' sh {} +";
+    }
+
+    /**
+     * Returns whether the output was a listing of the root in the expected format. Otherwise the tree is incomplete,
+     * e.g. 'find' is missing or 'ls' is toolbox.
+     */
+    boolean isRecognized() {
+        return this.rootListed && !this.unrecognized;
+    }
+
+    void processLine(String line) {
+        int length = line.length();
+        if (length == 0) {
+            return;
+        }
+
+        if (line.charAt(length - 1) == ':' && line.charAt(0) == '/') {
+            // Header of a directory listing, e.g. '/sdcard/DCIM:'
+            this.currentDirectory = this.pendingDirectories.remove(normalizePath(line.substring(0, length - 1)));
+            if (this.currentDirectory != null && this.currentDirectory.node == this.root) {
+                this.rootListed = true;
+            }
+            return;
+        }
+
+        if (this.currentDirectory != null && isEntryLine(line)) {
+            this.processEntry(line);
+        }
+        // anything else is a 'total' line, an error message or a listing not requested
+    }
+
+    private void processEntry(String line) {
+        // perms links owner group size date time name
+        int[] position = new int[] { 0 };
+        String permissions = nextField(line, position);
+        String links = nextField(line, position);
+        String owner = nextField(line, position);
+        String group = nextField(line, position);
+        String size = nextField(line, position);
+        if (size != null && size.endsWith(",")) {
+            // device files list 'major, minor' instead of a size
+            size = size + " " + nextField(line, position);
+        }
+        String date = nextField(line, position);
+        String time = nextField(line, position);
+        if (links != null && !isNumber(links) || date != null && !isDate(date)) {
+            // e.g. toolbox 'drwxr-xr-x root root 2015-01-01 12:00 acct', the fields would be shifted
+            this.unrecognized = true;
+            return;
+        }
+        if (links == null || time == null || position[0] >= line.length()) {
+            return;
+        }
+        String name = line.substring(skipSpaces(line, position[0]));
+
+        String info = null;
+        char type = permissions.charAt(0);
+        if (type == 'l') {
+            int arrow = name.indexOf(" -> ");
+            if (arrow >= 0) {
+                info = name.substring(arrow + 1);
+                name = name.substring(0, arrow);
+            }
+        }
+        if (".".equals(name) || "..".equals(name)) {
+            return;
+        }
+
+        String parentPath = this.currentDirectory.path;
+        String fullPath = "/".equals(parentPath) ? "/" + name : parentPath + "/" + name;
+        if (!this.filter.test(fullPath)) {
+            return;
+        }
+
+        FileNode node = new FileNode();
+        node.setName(name);
+        node.setFullPath(fullPath);
+        node.setDirectory(type == 'd');
+        node.setInfo(info);
+        node.setPermissions(permissions);
+        node.setSize(size);
+        node.setDate(date);
+        node.setTime(time);
+        node.setOwner(owner);
+        node.setGroup(group);
+        node.setAppPackage(name.endsWith(".apk") && (parentPath.startsWith("/data/app") || parentPath.startsWith("/system/app")));
+        node.setRoot(false);
+        this.currentDirectory.node.addChild(node);
+
+        if (node.isDirectory() && this.currentDirectory.depth < this.maxDepth) {
+            this.pendingDirectories.put(fullPath, new DirectoryNode(node, fullPath, this.currentDirectory.depth + 1));
+        }
+    }
+
+    private static boolean isEntryLine(String line) {
+        // e.g. 'drwxrwx--x' - type followed by 9 permission characters
+        if (line.length() < 11) {
+            return false;
+        }
+        switch (line.charAt(0)) {
+        case '-':
+        case 'd':
+        case 'l':
+        case 'b':
+        case 'c':
+        case 'p':
+        case 's':
+            break;
+        default:
+            return false;
+        }
+        char permission = line.charAt(1);
+        return permission == 'r' || permission == '-';
+    }
+
+    private static boolean isNumber(String field) {
+        for (int index = 0; index < field.length(); index++) {
+            if (!Character.isDigit(field.charAt(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDate(String field) {
+        // e.g. '2023-05-01'
+        return field != null && field.length() == 10 && field.charAt(4) == '-' && field.charAt(7) == '-';
+    }
+
+    private static String nextField(String line, int[] position) {
+        int start = skipSpaces(line, position[0]);
+        int end = start;
+        while (end < line.length() && line.charAt(end) != ' ') {
+            end++;
+        }
+        position[0] = end;
+        return start == end ? null : line.substring(start, end);
+    }
+
+    private static int skipSpaces(String line, int index) {
+        while (index < line.length() && line.charAt(index) == ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    static String normalizePath(String path) {
+        String normalized = path.replaceAll("/{2,}", "/");
+        if (normalized.length() > 1 && normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,283 @@
+package com.github.cornerstonews.adb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Pushes and pulls many files with several sync connections to the device at the same time.
+ *
+ * Files whose size and modification time (in seconds) match on both sides are skipped. Pushed files keep their
+ * local modification time on the device and pulled files get the modification time of the device, so that a
+ * repeated transfer only copies what changed.
+ */
+class BulkFileTransfer {
+
+    private static final Logger LOG = LogManager.getLogger(BulkFileTransfer.class);
+
+    public static final int DEFAULT_PARALLELISM = 4;
+    private static final int MEDIA_SCAN_BATCH_SIZE = 16;
+
+    private final AdbExecutor adbExecutor;
+    private final IDevice device;
+    private final int parallelism;
+
+    private static final class FileTransfer {
+        private final String source;
+        private final String destination;
+
+        private FileTransfer(String source, String destination) {
+            this.source = source;
+            this.destination = destination;
+        }
+    }
+
+    private static final class RemoteStat {
+        private final long size;
+        private final long modifiedSeconds;
+
+        private RemoteStat(long size, long modifiedSeconds) {
+            this.size = size;
+            this.modifiedSeconds = modifiedSeconds;
+        }
+    }
+
+    private interface TransferTask {
+        long transfer(FileTransfer transfer) throws IOException, SyncException, AdbCommandRejectedException, TimeoutException;
+    }
+
+    BulkFileTransfer(AdbExecutor adbExecutor, IDevice device, int parallelism) {
+        this.adbExecutor = adbExecutor;
+        this.device = device;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    TransferResult pushDirectory(String localDirectory, String remoteDirectory) throws IOException {
+        Path localRoot = Paths.get(localDirectory);
+        String remoteRoot = BulkFileListingParser.normalizePath(remoteDirectory);
+        List<FileTransfer> transfers;
+        try (Stream<Path> localFiles = Files.walk(localRoot)) {
+            transfers = localFiles.filter(Files::isRegularFile)
+                    .map(file -> new FileTransfer(file.toString(), toRemotePath(remoteRoot, localRoot.relativize(file))))
+                    .collect(Collectors.toList());
+        }
+
+        Map<String, RemoteStat> remoteStats = this.statRemote(findFilesCommand(remoteRoot));
+        return this.pushAndScan(transfers, remoteStats);
+    }
+
+    TransferResult pushFiles(Map<String, String> localToRemote) throws IOException {
+        List<FileTransfer> transfers = localToRemote.entrySet().stream().map(file -> new FileTransfer(file.getKey(), file.getValue()))
+                .collect(Collectors.toList());
+        Map<String, RemoteStat> remoteStats = this.statRemote(this.statCommand(localToRemote.values()));
+        return this.pushAndScan(transfers, remoteStats);
+    }
+
+    TransferResult pullDirectory(String remoteDirectory, String localDirectory) throws IOException {
+        String remoteRoot = BulkFileListingParser.normalizePath(remoteDirectory);
+        Map<String, RemoteStat> remoteStats = this.statRemote(findFilesCommand(remoteRoot));
+        List<FileTransfer> transfers = remoteStats.keySet().stream()
+                .map(remoteFile -> new FileTransfer(remoteFile, Paths.get(localDirectory, remoteFile.substring(remoteRoot.length())).toString()))
+                .collect(Collectors.toList());
+        return this.pull(transfers, remoteStats);
+    }
+
+    TransferResult pullFiles(Map<String, String> remoteToLocal) throws IOException {
+        List<FileTransfer> transfers = remoteToLocal.entrySet().stream().map(file -> new FileTransfer(file.getKey(), file.getValue()))
+                .collect(Collectors.toList());
+        return this.pull(transfers, this.statRemote(this.statCommand(remoteToLocal.keySet())));
+    }
+
+    /**
+     * Pushes the changed files and requests a media scan of the ones pushed. The scan broadcast only indexes single
+     * files, a directory passed to it is not scanned.
+     */
+    private TransferResult pushAndScan(List<FileTransfer> transfers, Map<String, RemoteStat> remoteStats) {
+        List<String> pushedFiles = Collections.synchronizedList(new ArrayList<String>());
+        TransferResult result = this.push(transfers, remoteStats, pushedFiles);
+        this.scanMedia(pushedFiles);
+        return result;
+    }
+
+    private TransferResult push(List<FileTransfer> transfers, Map<String, RemoteStat> remoteStats, List<String> pushedFiles) {
+        TransferResult result = new TransferResult();
+        List<FileTransfer> changed = new ArrayList<FileTransfer>();
+        for (FileTransfer transfer : transfers) {
+            File localFile = new File(transfer.source);
+            RemoteStat remoteStat = remoteStats.get(BulkFileListingParser.normalizePath(transfer.destination));
+            if (remoteStat != null && remoteStat.size == localFile.length() && remoteStat.modifiedSeconds == localFile.lastModified() / 1000) {
+                result.addSkipped();
+            } else {
+                changed.add(transfer);
+            }
+        }
+
+        this.transferAll(changed, result, transfer -> {
+            ShellCommandBudget.getDefault().acquire();
+            this.device.pushFile(transfer.source, transfer.destination);
+            pushedFiles.add(transfer.destination);
+            return new File(transfer.source).length();
+        });
+        return result;
+    }
+
+    private TransferResult pull(List<FileTransfer> transfers, Map<String, RemoteStat> remoteStats) {
+        TransferResult result = new TransferResult();
+        List<FileTransfer> changed = new ArrayList<FileTransfer>();
+        for (FileTransfer transfer : transfers) {
+            File localFile = new File(transfer.destination);
+            RemoteStat remoteStat = remoteStats.get(BulkFileListingParser.normalizePath(transfer.source));
+            if (remoteStat != null && localFile.isFile() && remoteStat.size == localFile.length()
+                    && remoteStat.modifiedSeconds == localFile.lastModified() / 1000) {
+                result.addSkipped();
+            } else {
+                changed.add(transfer);
+            }
+        }
+
+        this.transferAll(changed, result, transfer -> {
+            File localFile = new File(transfer.destination);
+            if (localFile.getParentFile() != null) {
+                Files.createDirectories(localFile.getParentFile().toPath());
+            }
+            ShellCommandBudget.getDefault().acquire();
+            this.device.pullFile(transfer.source, transfer.destination);
+            RemoteStat remoteStat = remoteStats.get(BulkFileListingParser.normalizePath(transfer.source));
+            if (remoteStat != null) {
+                localFile.setLastModified(remoteStat.modifiedSeconds * 1000);
+            }
+            return localFile.length();
+        });
+        return result;
+    }
+
+    private void transferAll(List<FileTransfer> transfers, TransferResult result, TransferTask task) {
+        CompletionService<Void> completed = new ExecutorCompletionService<Void>(this.adbExecutor.getScheduler()::execute);
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (next < transfers.size() || inFlight > 0) {
+                while (inFlight < this.parallelism && next < transfers.size()) {
+                    FileTransfer transfer = transfers.get(next++);
+                    try {
+                        completed.submit(() -> this.transfer(transfer, result, task), null);
+                        inFlight++;
+                    } catch (RejectedExecutionException e) {
+                        // Scheduler is saturated - transfer on this thread instead
+                        this.transfer(transfer, result, task);
+                    }
+                }
+                if (inFlight > 0) {
+                    completed.take().get();
+                    inFlight--;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.addFailure("*", "Interrupted, " + (transfers.size() - next) + " files not transferred");
+        } catch (ExecutionException e) {
+            // transfer() records its own failures
+            LOG.warn("Unexpected transfer error: '{}'", e.getCause().getMessage());
+        }
+    }
+
+    private void transfer(FileTransfer transfer, TransferResult result, TransferTask task) {
+        try {
+            LOG.trace("Transferring '{}' to '{}' for device: '{}'", transfer.source, transfer.destination, this.device.getSerialNumber());
+            result.addTransferred(task.transfer(transfer));
+        } catch (IOException | SyncException | AdbCommandRejectedException | TimeoutException | RuntimeException e) {
+            LOG.debug("Error transferring '{}'. Error: '{}'", transfer.source, e.getMessage());
+            LOG.trace("Error transferring '{}' for device: '{}'", transfer.source, this.device.getSerialNumber(), e);
+            result.addFailure(transfer.source, e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+    }
+
+    private String statCommand(Iterable<String> remoteFiles) {
+        StringBuilder command = new StringBuilder("stat -c '%s %Y %n'");
+        for (String remoteFile : remoteFiles) {
+            command.append(' ').append(AdbExecutor.shellQuote(remoteFile));
+        }
+        return command.toString();
+    }
+
+    /**
+     * Runs a command printing 'size mtime path' lines and returns the stats by normalized path, as 'find' below a
+     * root with a trailing slash may print double slashes. Missing files are left out.
+     */
+    private Map<String, RemoteStat> statRemote(String statCommand) {
+        Map<String, RemoteStat> remoteStats = new HashMap<String, RemoteStat>();
+        try {
+            this.adbExecutor.executeShellCommand(statCommand, line -> {
+                String[] stat = line.split(" ", 3);
+                if (stat.length == 3) {
+                    try {
+                        remoteStats.put(BulkFileListingParser.normalizePath(stat[2]), new RemoteStat(Long.parseLong(stat[0]), Long.parseLong(stat[1])));
+                    } catch (NumberFormatException e) {
+                        // error output, e.g. for missing files
+                    }
+                }
+            });
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+            // Without stats every file gets transferred
+            LOG.debug("Error getting remote file stats, transferring all files. Error: '{}'", e.getMessage());
+        }
+        return remoteStats;
+    }
+
+    /**
+     * Lists size, modification time and path of all files below the root. The trailing slash makes 'find' follow
+     * a root which is a symlink, e.g. '/sdcard'.
+     */
+    private static String findFilesCommand(String remoteRoot) {
+        String root = remoteRoot.endsWith("/") ? remoteRoot : remoteRoot + "/";
+        return "find " + AdbExecutor.shellQuote(root) + " -type f -exec stat -c '%s %Y %n' {} +";
+    }
+
+    /**
+     * Requests a media scan of the given paths, with at most {@link #MEDIA_SCAN_BATCH_SIZE} broadcasts per shell
+     * command to keep the command line short.
+     */
+    private void scanMedia(List<String> remotePaths) {
+        for (int start = 0; start < remotePaths.size(); start += MEDIA_SCAN_BATCH_SIZE) {
+            StringBuilder command = new StringBuilder();
+            for (String remotePath : remotePaths.subList(start, Math.min(start + MEDIA_SCAN_BATCH_SIZE, remotePaths.size()))) {
+                command.append("am broadcast -a android.intent.action.MEDIA_SCANNER_SCAN_FILE -d ").append(AdbExecutor.shellQuote("file://" + remotePath))
+                        .append(" > /dev/null; ");
+            }
+            try {
+                this.adbExecutor.executeShellCommand(command.toString());
+            } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+                LOG.warn("Error requesting media scan. Error: '{}'", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private static String toRemotePath(String remoteRoot, Path relativePath) {
+        // No double slash below the root directory, stats of the device are keyed by the plain path
+        String root = remoteRoot.endsWith("/") ? remoteRoot : remoteRoot + "/";
+        return root + relativePath.toString().replace(File.separatorChar, '/');
+    }
+}
@@ -13,6 +13,9 @@ public class DeviceDO {
     private Integer batteryLevel;
     private String batteryHealth;
     private Double batteryTemperature;
+    private Integer batteryVoltage;
+    private String batteryStatus;
+    private String batteryPlugType;
     private boolean isWifiEnabled;
     private boolean isSimPresent = false;
     private String ICCID;
@@ -30,6 +33,39 @@ public class DeviceDO {
     public DeviceDO() {
     }
 
+    /**
+     * Creates a copy of the given device.
+     */
+    public DeviceDO(DeviceDO other) {
+        this.serialNumber = other.serialNumber;
+        this.androidVersion = other.androidVersion;
+        this.apiLevel = other.apiLevel;
+        this.manufacturer = other.manufacturer;
+        this.model = other.model;
+        this.product = other.product;
+        this.isOnline = other.isOnline;
+        this.state = other.state;
+        this.batteryLevel = other.batteryLevel;
+        this.batteryHealth = other.batteryHealth;
+        this.batteryTemperature = other.batteryTemperature;
+        this.batteryVoltage = other.batteryVoltage;
+        this.batteryStatus = other.batteryStatus;
+        this.batteryPlugType = other.batteryPlugType;
+        this.isWifiEnabled = other.isWifiEnabled;
+        this.isSimPresent = other.isSimPresent;
+        this.ICCID = other.ICCID;
+        this.IMSI = other.IMSI;
+        this.IMEI = other.IMEI;
+        this.phoneNumber = other.phoneNumber;
+        this.simOperator = other.simOperator;
+        this.rssi = other.rssi;
+        this.isMobileDataEnabled = other.isMobileDataEnabled;
+        this.mobileDataType = other.mobileDataType;
+        this.isAirplaneModeOn = other.isAirplaneModeOn;
+        this.isBluetoothOn = other.isBluetoothOn;
+        this.isNfcOn = other.isNfcOn;
+    }
+
     public String getSerialNumber() {
         return serialNumber;
     }
@@ -118,6 +154,30 @@ public class DeviceDO {
         this.batteryTemperature = batteryTemperature;
     }
 
+    public Integer getBatteryVoltage() {
+        return batteryVoltage;
+    }
+
+    public void setBatteryVoltage(Integer batteryVoltage) {
+        this.batteryVoltage = batteryVoltage;
+    }
+
+    public String getBatteryStatus() {
+        return batteryStatus;
+    }
+
+    public void setBatteryStatus(String batteryStatus) {
+        this.batteryStatus = batteryStatus;
+    }
+
+    public String getBatteryPlugType() {
+        return batteryPlugType;
+    }
+
+    public void setBatteryPlugType(String batteryPlugType) {
+        this.batteryPlugType = batteryPlugType;
+    }
+
     public boolean isWifiEnabled() {
         return isWifiEnabled;
     }
@@ -245,6 +305,12 @@ public class DeviceDO {
         builder.append(batteryHealth);
         builder.append("\", \"batteryTemperature\":\"");
         builder.append(batteryTemperature);
+        builder.append("\", \"batteryVoltage\":\"");
+        builder.append(batteryVoltage);
+        builder.append("\", \"batteryStatus\":\"");
+        builder.append(batteryStatus);
+        builder.append("\", \"batteryPlugType\":\"");
+        builder.append(batteryPlugType);
         builder.append("\", \"isWifiEnabled\":\"");
         builder.append(isWifiEnabled);
         builder.append("\", \"isSimPresent\":\"");
@@ -0,0 +1,114 @@
+package com.github.cornerstonews.adb;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Fields of a device which changed between two device info snapshots, with their old and new values.
+ */
+public class DeviceDelta {
+
+    private final String deviceSerial;
+    private final Map<DeviceField, Change> changes;
+
+    public static final class Change {
+        private final Object oldValue;
+        private final Object newValue;
+
+        private Change(Object oldValue, Object newValue) {
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        public Object getOldValue() {
+            return oldValue;
+        }
+
+        public Object getNewValue() {
+            return newValue;
+        }
+
+        @Override
+        public String toString() {
+            return oldValue + " -> " + newValue;
+        }
+    }
+
+    private DeviceDelta(String deviceSerial, Map<DeviceField, Change> changes) {
+        this.deviceSerial = deviceSerial;
+        this.changes = Collections.unmodifiableMap(changes);
+    }
+
+    /**
+     * Compares two snapshots of the same device. Without a previous snapshot every field with a value counts as
+     * changed.
+     */
+    public static DeviceDelta between(DeviceDO previous, DeviceDO current) {
+        Map<DeviceField, Change> changes = new EnumMap<DeviceField, Change>(DeviceField.class);
+        for (DeviceField field : DeviceField.values()) {
+            Object oldValue = field.getValue(previous);
+            Object newValue = field.getValue(current);
+            if (!Objects.equals(oldValue, newValue)) {
+                changes.put(field, new Change(oldValue, newValue));
+            }
+        }
+        return new DeviceDelta(current.getSerialNumber(), changes);
+    }
+
+    /**
+     * Combines this delta with the following one, e.g. when a listener hasn't received this delta yet. Fields which
+     * changed back to their old value are left out.
+     */
+    DeviceDelta followedBy(DeviceDelta next) {
+        Map<DeviceField, Change> changes = new EnumMap<DeviceField, Change>(DeviceField.class);
+        changes.putAll(this.changes);
+        next.changes.forEach((field, change) -> {
+            Change earlier = changes.get(field);
+            Object oldValue = earlier == null ? change.oldValue : earlier.oldValue;
+            if (Objects.equals(oldValue, change.newValue)) {
+                changes.remove(field);
+            } else {
+                changes.put(field, new Change(oldValue, change.newValue));
+            }
+        });
+        return new DeviceDelta(this.deviceSerial, changes);
+    }
+
+    /**
+     * Returns the part of this delta touching the given fields.
+     */
+    DeviceDelta filter(Collection<DeviceField> fields) {
+        Map<DeviceField, Change> changes = new EnumMap<DeviceField, Change>(DeviceField.class);
+        this.changes.forEach((field, change) -> {
+            if (fields.contains(field)) {
+                changes.put(field, change);
+            }
+        });
+        return new DeviceDelta(this.deviceSerial, changes);
+    }
+
+    public String getDeviceSerial() {
+        return deviceSerial;
+    }
+
+    public Map<DeviceField, Change> getChanges() {
+        return changes;
+    }
+
+    public Set<DeviceField> getChangedFields() {
+        return changes.keySet();
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceDelta [deviceSerial=" + deviceSerial + ", changes=" + changes + "]";
+    }
+}
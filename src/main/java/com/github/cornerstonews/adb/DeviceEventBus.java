@@ -0,0 +1,136 @@
+package com.github.cornerstonews.adb;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.github.cornerstonews.adb.AdbManager.IDeviceStatusListener;
+
+/**
+ * Delivers device status events to listeners off the thread raising them.
+ *
+ * Every listener has its own queue, drained by at most one dispatch thread at a time, so a slow listener only
+ * delays its own events. Events are delivered in the order they were published; when a device raises another event
+ * of the same status before the listener got to the previous one, e.g. repeated DETAILS_READY, both are combined into
+ * the pending event with the field changes of both.
+ */
+class DeviceEventBus {
+
+    private static final Logger LOG = LogManager.getLogger(DeviceEventBus.class);
+
+    private static final AtomicInteger BUS_COUNT = new AtomicInteger();
+
+    private final ExecutorService dispatcher;
+    private final Map<IDeviceStatusListener, ListenerQueue> queues = new ConcurrentHashMap<IDeviceStatusListener, ListenerQueue>();
+
+    DeviceEventBus() {
+        int busNumber = BUS_COUNT.incrementAndGet();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.dispatcher = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "adb-event-dispatch-" + busNumber + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    void addListener(IDeviceStatusListener listener) {
+        this.queues.computeIfAbsent(listener, ListenerQueue::new);
+    }
+
+    void removeListener(IDeviceStatusListener listener) {
+        ListenerQueue queue = this.queues.remove(listener);
+        if (queue != null) {
+            queue.clear();
+        }
+    }
+
+    void publish(DeviceStatusEvent event) {
+        for (ListenerQueue queue : this.queues.values()) {
+            queue.offer(event);
+        }
+    }
+
+    void shutdown() {
+        this.queues.values().forEach(ListenerQueue::clear);
+        this.queues.clear();
+        this.dispatcher.shutdown();
+    }
+
+    private final class ListenerQueue {
+        private final IDeviceStatusListener listener;
+        private final Queue<PendingEvent> pendingEvents = new ArrayDeque<PendingEvent>();
+        // Last pending event per serial, the only one a later event of the device may be combined with
+        private final Map<String, PendingEvent> lastPendingEvents = new HashMap<String, PendingEvent>();
+        private boolean draining = false;
+
+        private ListenerQueue(IDeviceStatusListener listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void offer(DeviceStatusEvent event) {
+            PendingEvent pendingEvent = this.lastPendingEvents.get(event.getDeviceSerial());
+            if (pendingEvent != null && event.canCoalesce(pendingEvent.event)) {
+                LOG.trace("Coalesced pending event for device: '{}' into '{}'", event.getDeviceSerial(), event.getStatus());
+                pendingEvent.event = event.coalesce(pendingEvent.event);
+            } else {
+                pendingEvent = new PendingEvent(event);
+                this.pendingEvents.add(pendingEvent);
+                this.lastPendingEvents.put(event.getDeviceSerial(), pendingEvent);
+            }
+            if (!this.draining) {
+                try {
+                    dispatcher.execute(this::drain);
+                    this.draining = true;
+                } catch (RejectedExecutionException e) {
+                    LOG.debug("Event bus shut down, dropping device status event");
+                    this.clear();
+                }
+            }
+        }
+
+        private synchronized void clear() {
+            this.pendingEvents.clear();
+            this.lastPendingEvents.clear();
+        }
+
+        private synchronized DeviceStatusEvent poll() {
+            PendingEvent pendingEvent = this.pendingEvents.poll();
+            if (pendingEvent == null) {
+                this.draining = false;
+                return null;
+            }
+            this.lastPendingEvents.remove(pendingEvent.event.getDeviceSerial(), pendingEvent);
+            return pendingEvent.event;
+        }
+
+        private void drain() {
+            DeviceStatusEvent event;
+            while ((event = this.poll()) != null) {
+                try {
+                    this.listener.deviceStatusChanged(event);
+                } catch (Exception e) {
+                    // Catch possible exception thrown by listeners, the next event is delivered anyway
+                    LOG.warn("Exception thrown by device status listener '{}'. Error: '{}'", this.listener.getClass().getName(), e.getMessage());
+                    LOG.trace("Exception thrown by device status listener for device: '{}'", event.getDeviceSerial(), e);
+                }
+            }
+        }
+    }
+
+    private static final class PendingEvent {
+        private DeviceStatusEvent event;
+
+        private PendingEvent(DeviceStatusEvent event) {
+            this.event = event;
+        }
+    }
+}
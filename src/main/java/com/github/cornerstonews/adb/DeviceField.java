@@ -0,0 +1,45 @@
+package com.github.cornerstonews.adb;
+
+import java.util.function.Function;
+
+/**
+ * Fields of a {@link DeviceDO} which can be tracked for changes.
+ */
+public enum DeviceField {
+    ANDROID_VERSION(DeviceDO::getAndroidVersion),
+    API_LEVEL(DeviceDO::getApiLevel),
+    MANUFACTURER(DeviceDO::getManufacturer),
+    MODEL(DeviceDO::getModel),
+    PRODUCT(DeviceDO::getProduct),
+    ONLINE(DeviceDO::isOnline),
+    STATE(DeviceDO::getState),
+    BATTERY_LEVEL(DeviceDO::getBatteryLevel),
+    BATTERY_HEALTH(DeviceDO::getBatteryHealth),
+    BATTERY_TEMPERATURE(DeviceDO::getBatteryTemperature),
+    BATTERY_VOLTAGE(DeviceDO::getBatteryVoltage),
+    BATTERY_STATUS(DeviceDO::getBatteryStatus),
+    BATTERY_PLUG_TYPE(DeviceDO::getBatteryPlugType),
+    WIFI_ENABLED(DeviceDO::isWifiEnabled),
+    SIM_PRESENT(DeviceDO::isSimPresent),
+    ICCID(DeviceDO::getICCID),
+    IMSI(DeviceDO::getIMSI),
+    IMEI(DeviceDO::getIMEI),
+    PHONE_NUMBER(DeviceDO::getPhoneNumber),
+    SIM_OPERATOR(DeviceDO::getSimOperator),
+    RSSI(DeviceDO::getRssi),
+    MOBILE_DATA_ENABLED(DeviceDO::isMobileDataEnabled),
+    MOBILE_DATA_TYPE(DeviceDO::getMobileDataType),
+    AIRPLANE_MODE_ON(DeviceDO::isAirplaneModeOn),
+    BLUETOOTH_ON(DeviceDO::isBluetoothOn),
+    NFC_ON(DeviceDO::isNfcOn);
+
+    private final Function<DeviceDO, Object> getter;
+
+    private DeviceField(Function<DeviceDO, Object> getter) {
+        this.getter = getter;
+    }
+
+    public Object getValue(DeviceDO device) {
+        return device == null ? null : this.getter.apply(device);
+    }
+}
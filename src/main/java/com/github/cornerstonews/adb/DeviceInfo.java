@@ -1,10 +1,15 @@
 package com.github.cornerstonews.adb;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -17,31 +22,218 @@ import com.android.ddmlib.TimeoutException;
 public class DeviceInfo {
     private static final Logger LOG = LogManager.getLogger(DeviceInfo.class);
 
+    // Max time to wait on a pending battery query before reporting the value as unknown
+    private static final long BATTERY_QUERY_TIMEOUT_MS = 10 * 1000;
+
+    // SIM and identity probes rarely change, they are only re-fetched after this freshness or when the SIM state changes
+    private static final long SIM_INFO_FRESHNESS_MS = 30 * 60 * 1000;
+    private static final List<DeviceProbe> SIM_INFO_PROBES = Arrays.asList(DeviceProbe.CMD_GET_IMEI, DeviceProbe.CMD_GET_IMSI,
+            DeviceProbe.CMD_GET_ICCID, DeviceProbe.CMD_GET_NUMBER, DeviceProbe.PROP_SIM_OPERATOR);
+
+    // Settings and radio state, polled at this base cadence and less often while they don't change
+    private static final long SETTINGS_FRESHNESS_MS = 15 * 1000;
+    private static final List<DeviceProbe> SETTINGS_PROBES = Arrays.asList(DeviceProbe.CMD_GET_WIFI_ON, DeviceProbe.PROP_SIM_STATE,
+            DeviceProbe.CMD_GET_MOBILE_DATA, DeviceProbe.PROP_GSM_NETWORK_TYPE, DeviceProbe.CMD_GET_AIRPLANE_MODE,
+            DeviceProbe.CMD_GET_BLUETOOTH_ON, DeviceProbe.CMD_GET_NFC_STATUS);
+
+    // Battery is sampled at this base cadence, and less often while level, status and plug type don't change
+    private static final long BATTERY_FRESHNESS_MS = 60 * 1000;
+
+    // Samples cached next to the probes, taken by other means than a probe command
+    private enum Sample {
+        BATTERY
+    }
+
+    // Probes fetched in a single shell round-trip when batched probes are enabled
+    private static final List<DeviceProbe> BATCHED_PROBES = Arrays.asList(DeviceProbe.CMD_GET_WIFI_ON, DeviceProbe.PROP_SIM_STATE,
+            DeviceProbe.CMD_GET_ICCID, DeviceProbe.CMD_GET_IMSI, DeviceProbe.CMD_GET_IMEI, DeviceProbe.CMD_GET_NUMBER,
+            DeviceProbe.PROP_SIM_OPERATOR, DeviceProbe.CMD_GET_MOBILE_DATA, DeviceProbe.PROP_GSM_NETWORK_TYPE,
+            DeviceProbe.CMD_GET_AIRPLANE_MODE, DeviceProbe.CMD_GET_BLUETOOTH_ON, DeviceProbe.CMD_GET_NFC_STATUS);
+
     private AdbExecutor adbExecutor;
     private IDevice adbDevice;
     private BatteryFetcher batteryFetcher;
 
-    private Map<String, String> commands;
+    private Map<DeviceProbe, String> commands;
     private DeviceDO deviceDO = new DeviceDO();
+    // Copy of deviceDO published at the end of every getInfo(), never modified afterwards
+    private volatile DeviceDO snapshot;
+    private boolean batchedProbes = false;
+    private Map<DeviceProbe, String> probeResults;
+    private ProbeCache<DeviceProbe> probeCache = new ProbeCache<DeviceProbe>();
+    private ProbeCache<Sample> sampleCache = new ProbeCache<Sample>();
+    private String lastSimState;
+    private boolean initialized = false;
+    // Pushes probe results, see setPushedProbes()
+    private volatile Object pushedProbesOwner;
+    // Deadline of the running getInfo() call in System.nanoTime(), 0 for none
+    private long deadline = 0;
 
     public DeviceInfo(AdbExecutor adbExecutor, IDevice device) {
         this.adbExecutor = adbExecutor;
         this.adbDevice = device;
 
-        this.batteryFetcher = new BatteryFetcher(device);
+        // Only cheap setup here, anything talking to the device is deferred to the first getInfo() call
+        this.batteryFetcher = new BatteryFetcher(adbExecutor);
+        this.deviceDO.setSerialNumber(device.getSerialNumber());
+        this.snapshot = new DeviceDO(this.deviceDO);
+        SIM_INFO_PROBES.forEach(probe -> this.probeCache.setFreshness(probe, SIM_INFO_FRESHNESS_MS, TimeUnit.MILLISECONDS));
+        SETTINGS_PROBES.forEach(probe -> this.probeCache.setFreshness(probe, SETTINGS_FRESHNESS_MS, TimeUnit.MILLISECONDS));
+        this.sampleCache.setFreshness(Sample.BATTERY, BATTERY_FRESHNESS_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void initialize() {
         setBasicDeviceInfo();
         commands = DeviceInfoAdbCommands.getCommands(this.deviceDO.getApiLevel());
         setFetchOnlyOnceData();
+        this.initialized = true;
+    }
+
+    public boolean isBatchedProbes() {
+        return batchedProbes;
+    }
+
+    public void setBatchedProbes(boolean batchedProbes) {
+        this.batchedProbes = batchedProbes;
+    }
+
+    /**
+     * Sets how long the result of the given probe is served from cache. A freshness of 0 disables caching for the
+     * probe.
+     */
+    public void setProbeFreshness(DeviceProbe probe, long freshness, TimeUnit timeUnit) {
+        this.probeCache.setFreshness(probe, freshness, timeUnit);
+    }
+
+    /**
+     * Sets how long the battery sample of a refresh is reused before the battery is sampled again. A freshness of 0
+     * samples the battery on every refresh.
+     */
+    public void setBatteryFreshness(long freshness, TimeUnit timeUnit) {
+        this.sampleCache.setFreshness(Sample.BATTERY, freshness, timeUnit);
+    }
+
+    /**
+     * Sets how many times its freshness a probe whose result doesn't change may be served from cache. 1 polls every
+     * probe at its configured freshness.
+     */
+    public void setProbeMaxBackoff(int maxBackoff) {
+        this.probeCache.setMaxBackoff(maxBackoff);
+        this.sampleCache.setMaxBackoff(maxBackoff);
+    }
+
+    /**
+     * Returns the battery state, querying the device only if the cached sample is older than the given freshness.
+     */
+    public Future<BatterySample> getBatterySample(long freshness, TimeUnit timeUnit) {
+        return this.batteryFetcher.getBatterySample(freshness, timeUnit);
+    }
+
+    /**
+     * Sets who may push probe results, e.g. the running {@link DeviceStateWatcher}. Results pushed by anyone else,
+     * e.g. a watcher which has been stopped meanwhile, are ignored.
+     */
+    void setPushedProbesOwner(Object owner) {
+        this.pushedProbesOwner = owner;
     }
 
+    /**
+     * Takes probe results pushed by the device. The results are served without polling until
+     * {@link #clearPushedProbes(Object, Collection)} is called.
+     *
+     * @return the device info snapshot with the pushed results applied, or null if the owner no longer pushes
+     */
+    synchronized DeviceDO setPushedProbes(Object owner, Map<DeviceProbe, String> probeResults) {
+        if (owner != this.pushedProbesOwner) {
+            return null;
+        }
+        probeResults.forEach(this.probeCache::pin);
+        deviceDO.setWifiEnabled(this.isWifiEnabled());
+        deviceDO.setMobileDataEnabled(this.isMobileDataEnabled());
+        deviceDO.setAirplaneModeOn(this.isAirplaneModeOn());
+        deviceDO.setBluetoothOn(this.isBluetoothOn());
+        this.snapshot = new DeviceDO(deviceDO);
+        return this.snapshot;
+    }
+
+    /**
+     * Goes back to polling the given probes, unless the owner no longer pushes them.
+     */
+    synchronized void clearPushedProbes(Object owner, Collection<DeviceProbe> probes) {
+        if (owner != this.pushedProbesOwner) {
+            return;
+        }
+        this.probeCache.unpin(probes);
+    }
+
+    /**
+     * Goes back to polling the given probes and ends the ownership, unless someone else owns them meanwhile.
+     */
+    synchronized void releasePushedProbes(Object owner, Collection<DeviceProbe> probes) {
+        this.clearPushedProbes(owner, probes);
+        if (owner == this.pushedProbesOwner) {
+            this.pushedProbesOwner = null;
+        }
+    }
+
+    void setScheduler(DeviceScheduler scheduler) {
+        this.batteryFetcher.setScheduler(scheduler);
+    }
+
+    public void invalidateCache() {
+        LOG.debug("Invalidating cached device info");
+        LOG.trace("Invalidating cached device info for device: '{}'", this.adbDevice.getSerialNumber());
+        this.probeCache.invalidateAll();
+        this.sampleCache.invalidateAll();
+    }
+
+    /**
+     * Returns a copy of the last device info with only the connection state updated, without querying the device.
+     */
+    public DeviceDO getStatus() {
+        DeviceDO status = new DeviceDO(this.snapshot);
+        status.setState(this.getState());
+        status.setOnline(this.adbDevice.isOnline());
+        return status;
+    }
+
+    /**
+     * Refreshes the device info and returns it as a new snapshot. Snapshots are not updated by later refreshes and
+     * must not be modified, so two of them can be compared with {@link DeviceDelta#between(DeviceDO, DeviceDO)}.
+     */
     public DeviceDO getInfo() {
+        return this.getInfo(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Refreshes the device info within the given time, 0 for no limit. Shell commands are cut short at the deadline,
+     * probes not fetched in time keep their last cached result.
+     */
+    public synchronized DeviceDO getInfo(long timeout, TimeUnit timeUnit) {
+        this.deadline = timeout > 0 ? System.nanoTime() + timeUnit.toNanos(timeout) : 0;
+        try {
+            return this.refreshInfo();
+        } finally {
+            this.deadline = 0;
+        }
+    }
+
+    private DeviceDO refreshInfo() {
         deviceDO.setState(this.getState());
         deviceDO.setOnline(this.adbDevice.isOnline());
 
         if (this.adbDevice.isOnline()) {
-            deviceDO.setBatteryLevel(this.getBatteryLevel());
-            deviceDO.setBatteryHealth(this.getBatteryHealth());
-            deviceDO.setBatteryTemperature(this.getBatteryTemperature());
+            if (!this.initialized) {
+                this.initialize();
+            }
+            this.probeResults = this.batchedProbes ? this.fetchBatchedProbes() : null;
+            BatterySample batterySample = this.getBatterySample();
+            deviceDO.setBatteryLevel(batterySample == null ? null : batterySample.getLevel());
+            deviceDO.setBatteryHealth(batterySample == null ? null : batterySample.getHealth());
+            deviceDO.setBatteryTemperature(batterySample == null ? null : batterySample.getTemperature());
+            deviceDO.setBatteryVoltage(batterySample == null ? null : batterySample.getVoltage());
+            deviceDO.setBatteryStatus(batterySample == null ? null : batterySample.getStatus());
+            deviceDO.setBatteryPlugType(batterySample == null ? null : batterySample.getPlugType());
 
             deviceDO.setWifiEnabled(this.isWifiEnabled());
             deviceDO.setSimPresent(this.isSimPresent());
@@ -56,9 +248,11 @@ public class DeviceInfo {
             deviceDO.setAirplaneModeOn(this.isAirplaneModeOn());
             deviceDO.setBluetoothOn(this.isBluetoothOn());
             deviceDO.setNfcOn(this.isNFCOn());
+            this.probeResults = null;
         }
 
-        return deviceDO;
+        this.snapshot = new DeviceDO(deviceDO);
+        return this.snapshot;
     }
 
     public String getState() {
@@ -93,39 +287,27 @@ public class DeviceInfo {
         this.getDataFromShellCommand("GET_SIM_INFO_FROM_DIALER", DeviceInfoAdbCommands.CMD_DIALER_DEVICE_INFO);
     }
 
-    private Integer getBatteryLevel() {
-        // Fetch every 1 minutes, The battery level may be cached.
-        // Only queries the device for its battery level if 1 minutes have expired since the last successful query.
-        Future<Integer> futureBattery = this.adbDevice.getBattery(60 * 1000, TimeUnit.MILLISECONDS);
-        try {
-            return futureBattery.get();
-        } catch (InterruptedException | ExecutionException e) {
-            return null;
-        }
-    }
-
-    private String getBatteryHealth() {
-        // use default of 5 minutes
-        Future<String> futureBattery = batteryFetcher.getBatteryHealth(5 * 60 * 1000, TimeUnit.MILLISECONDS);
-        try {
-            return futureBattery.get();
-        } catch (InterruptedException | ExecutionException e) {
-            return null;
-        }
-    }
-
-    private Double getBatteryTemperature() {
-        // use default of 5 minutes
-        Future<Double> futureBattery = batteryFetcher.getBatteryTemperature(5 * 60 * 1000, TimeUnit.MILLISECONDS);
+    private BatterySample getBatterySample() {
+        // Level, health and temperature all come from the same sample, only taken once the battery probe is due.
+        // A sample taken meanwhile by someone else, e.g. the battery monitor, is recent enough.
+        boolean fetchRequired = this.sampleCache.isFetchRequired(Sample.BATTERY);
+        long freshness = fetchRequired ? BATTERY_FRESHNESS_MS / 4 : Long.MAX_VALUE;
+        Future<BatterySample> futureBattery = batteryFetcher.getBatterySample(freshness, TimeUnit.MILLISECONDS);
         try {
-            return futureBattery.get();
-        } catch (InterruptedException | ExecutionException e) {
+            long timeoutMs = this.deadline == 0 ? BATTERY_QUERY_TIMEOUT_MS : Math.min(BATTERY_QUERY_TIMEOUT_MS, this.getRemainingMs());
+            BatterySample sample = futureBattery.get(timeoutMs, TimeUnit.MILLISECONDS);
+            if (fetchRequired && sample != null) {
+                // Temperature and voltage drift all the time, only these count as a change for the polling backoff
+                this.sampleCache.put(Sample.BATTERY, sample.getLevel() + "," + sample.getStatus() + "," + sample.getPlugType());
+            }
+            return sample;
+        } catch (InterruptedException | ExecutionException | java.util.concurrent.TimeoutException e) {
             return null;
         }
     }
 
     private Boolean isWifiEnabled() {
-        String wifiStatus = this.getDataFromShellCommand("WIFI_STATUS", this.commands.get("CMD_GET_WIFI_ON"));
+        String wifiStatus = this.getProbeResult("WIFI_STATUS", DeviceProbe.CMD_GET_WIFI_ON);
         if ("1".equalsIgnoreCase(wifiStatus) || "2".equalsIgnoreCase(wifiStatus)) {
             return true;
         }
@@ -133,7 +315,7 @@ public class DeviceInfo {
     }
 
     private boolean isNFCOn() {
-        String nfcResult = this.getDataFromShellCommand("NFC_STATUS", this.commands.get("CMD_GET_NFC_STATUS"));
+        String nfcResult = this.getProbeResult("NFC_STATUS", DeviceProbe.CMD_GET_NFC_STATUS);
         if (nfcResult != null && (nfcResult.contains("mState=on") || nfcResult.contains("State: on"))) {
             return true;
         }
@@ -141,14 +323,14 @@ public class DeviceInfo {
     }
 
     private boolean isBluetoothOn() {
-        if ("1".equalsIgnoreCase(this.getDataFromShellCommand("BLUETOOTH_STATUS", this.commands.get("CMD_GET_BLUETOOTH_ON")))) {
+        if ("1".equalsIgnoreCase(this.getProbeResult("BLUETOOTH_STATUS", DeviceProbe.CMD_GET_BLUETOOTH_ON))) {
             return true;
         }
         return false;
     }
 
     private boolean isAirplaneModeOn() {
-        if ("1".equalsIgnoreCase(this.getDataFromShellCommand("AIRPLANE_MODE_STATUS", this.commands.get("CMD_GET_AIRPLANE_MODE")))) {
+        if ("1".equalsIgnoreCase(this.getProbeResult("AIRPLANE_MODE_STATUS", DeviceProbe.CMD_GET_AIRPLANE_MODE))) {
             return true;
         }
         return false;
@@ -158,7 +340,12 @@ public class DeviceInfo {
         // https://android.googlesource.com/platform/frameworks/base.git/+/master/telephony/java/com/android/internal/telephony/IccCardConstants.java
         boolean isPresent = false;
 
-        String rawSimState = this.getProperty(this.commands.get("PROP_SIM_STATE"));
+        String rawSimState = this.getPropertyProbeResult(DeviceProbe.PROP_SIM_STATE);
+        if (!Objects.equals(this.lastSimState, rawSimState)) {
+            // SIM swapped, inserted or removed - cached SIM info is no longer valid
+            this.probeCache.invalidate(SIM_INFO_PROBES);
+            this.lastSimState = rawSimState;
+        }
         if (rawSimState != null) {
             String[] simState = rawSimState.split(",");
 
@@ -187,19 +374,19 @@ public class DeviceInfo {
     }
 
     private String getIMEI() {
-        return this.getDataFromShellCommand("IMEI", this.commands.get("CMD_GET_IMEI"));
+        return this.getProbeResult("IMEI", DeviceProbe.CMD_GET_IMEI);
     }
 
     private String getIMSI() {
-        return this.getDataFromShellCommand("IMSI", this.commands.get("CMD_GET_IMSI"));
+        return this.getProbeResult("IMSI", DeviceProbe.CMD_GET_IMSI);
     }
 
     private String getICCID() {
-        return this.getDataFromShellCommand("ICCID", this.commands.get("CMD_GET_ICCID"));
+        return this.getProbeResult("ICCID", DeviceProbe.CMD_GET_ICCID);
     }
 
     private String getPhoneNumber() {
-        String phoneNumber = this.getDataFromShellCommand("Phone Number", this.commands.get("CMD_GET_NUMBER"));
+        String phoneNumber = this.getProbeResult("Phone Number", DeviceProbe.CMD_GET_NUMBER);
         if (phoneNumber != null && !phoneNumber.isBlank()) {
             phoneNumber = phoneNumber.replaceAll("[^\\d]", "");
         }
@@ -207,7 +394,7 @@ public class DeviceInfo {
     }
     
     private String getSimOperator() {
-        return this.getProperty(this.commands.get("PROP_SIM_OPERATOR"));
+        return this.getPropertyProbeResult(DeviceProbe.PROP_SIM_OPERATOR);
     }
 
     private Integer getRssi() {
@@ -220,7 +407,7 @@ public class DeviceInfo {
         if (!isOnline()) {
             return mobileDataEnabled;
         }
-        String mobileDataOn = this.getDataFromShellCommand("MOBILE_DATA_STATUS", this.commands.get("CMD_GET_MOBILE_DATA"));
+        String mobileDataOn = this.getProbeResult("MOBILE_DATA_STATUS", DeviceProbe.CMD_GET_MOBILE_DATA);
         if ("1".equalsIgnoreCase(mobileDataOn)) {
             mobileDataEnabled = true;
         }
@@ -228,29 +415,111 @@ public class DeviceInfo {
     }
 
     private String getMobileDataType() {
-        return this.getProperty(this.commands.get("PROP_GSM_NETWORK_TYPE"));
+        return this.getPropertyProbeResult(DeviceProbe.PROP_GSM_NETWORK_TYPE);
+    }
+
+    private Map<DeviceProbe, String> fetchBatchedProbes() {
+        List<DeviceProbe> probes = BATCHED_PROBES.stream().filter(this.probeCache::isFetchRequired).collect(Collectors.toList());
+        String script = DeviceInfoAdbCommands.buildProbeScript(this.commands, probes);
+        String output = this.getDataFromShellCommand("BATCHED_PROBES", script);
+        if (output == null) {
+            // Fall back to individual probes
+            return null;
+        }
+        return DeviceInfoAdbCommands.parseProbeOutput(output);
+    }
+
+    private String getProbeResult(String cmdName, DeviceProbe probe) {
+        if (!this.probeCache.isFetchRequired(probe) || this.isDeadlinePassed()) {
+            return this.probeCache.get(probe);
+        }
+
+        String result;
+        if (this.probeResults != null && this.probeResults.containsKey(probe)) {
+            result = this.probeResults.get(probe);
+        } else {
+            try {
+                result = this.runShellCommand(cmdName, this.commands.get(probe));
+            } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
+                // Failures are not cached, the probe is fetched again on the next poll
+                this.logCommandError(cmdName, e);
+                return null;
+            }
+        }
+        this.probeCache.put(probe, result);
+        return result;
+    }
+
+    private String getPropertyProbeResult(DeviceProbe probe) {
+        if (!this.probeCache.isFetchRequired(probe) || this.isDeadlinePassed()) {
+            return this.probeCache.get(probe);
+        }
+
+        String result;
+        if (this.probeResults != null && this.probeResults.containsKey(probe)) {
+            result = this.probeResults.get(probe);
+        } else {
+            result = this.getProperty(this.commands.get(probe));
+        }
+        this.probeCache.put(probe, result);
+        return result;
     }
 
     private String getDataFromShellCommand(String cmdName, String cmd) {
         try {
-            String result = null;
-            if (cmd != null) {
-                LOG.info("Getting '{}' for device", cmdName);
-                LOG.trace("Getting '{}' for device: '{}'", cmdName, this.adbDevice.getSerialNumber());
-                String cmdResult = this.adbExecutor.executeShellCommand(cmd);
-                if (cmdResult != null && !cmdResult.trim().isBlank()) {
-                    result = cmdResult.trim();
-                }
-                LOG.trace("Result of command: '{}' for device: '{}', Result: '{}'", cmdName, this.adbDevice.getSerialNumber(), result);
-            }
-            return result;
+            return this.runShellCommand(cmdName, cmd);
         } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException e) {
-            LOG.debug("Error getting '{}' for device. Error: '{}'", cmdName, e.getMessage());
-            LOG.trace("Error getting '{}' for device: '{}'", cmdName, this.adbDevice.getSerialNumber(), e);
+            this.logCommandError(cmdName, e);
             return null;
         }
     }
 
+    /**
+     * Returns the trimmed output of the command, or null if it printed nothing.
+     */
+    private String runShellCommand(String cmdName, String cmd) throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        String result = null;
+        if (cmd != null) {
+            LOG.info("Getting '{}' for device", cmdName);
+            LOG.trace("Getting '{}' for device: '{}'", cmdName, this.adbDevice.getSerialNumber());
+            String cmdResult = this.executeShellCommand(cmd);
+            if (cmdResult != null && !cmdResult.trim().isBlank()) {
+                result = cmdResult.trim();
+            }
+            LOG.trace("Result of command: '{}' for device: '{}', Result: '{}'", cmdName, this.adbDevice.getSerialNumber(), result);
+        }
+        return result;
+    }
+
+    private void logCommandError(String cmdName, Exception e) {
+        LOG.debug("Error getting '{}' for device. Error: '{}'", cmdName, e.getMessage());
+        LOG.trace("Error getting '{}' for device: '{}'", cmdName, this.adbDevice.getSerialNumber(), e);
+    }
+
+    /**
+     * Executes the command with the default limits, cut short at the deadline of the running refresh.
+     */
+    private String executeShellCommand(String cmd) throws TimeoutException, AdbCommandRejectedException, ShellCommandUnresponsiveException, IOException {
+        if (this.deadline == 0) {
+            return this.adbExecutor.executeShellCommand(cmd);
+        }
+        long remainingMs = this.getRemainingMs();
+        if (remainingMs <= 0) {
+            throw new TimeoutException("Device info refresh deadline passed");
+        }
+        long defaultMaxTimeoutMs = AdbExecutor.getDefaultMaxTimeoutMs();
+        long maxTimeoutMs = defaultMaxTimeoutMs > 0 ? Math.min(defaultMaxTimeoutMs, remainingMs) : remainingMs;
+        return this.adbExecutor.executeShellCommand(cmd, AdbExecutor.getDefaultMaxTimeToOutputResponseMs(), maxTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private long getRemainingMs() {
+        return TimeUnit.NANOSECONDS.toMillis(this.deadline - System.nanoTime());
+    }
+
+    private boolean isDeadlinePassed() {
+        return this.deadline != 0 && this.getRemainingMs() <= 0;
+    }
+
     private String getProperty(String property) {
         LOG.debug("Getting property: '{}' for device", property);
         LOG.trace("Getting property: '{}' for device: '{}'", property, this.adbDevice.getSerialNumber());
@@ -1,9 +1,20 @@
 package com.github.cornerstonews.adb;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 // ****************************************************************************************************
 // Library providing APIs to talk to Android devices (ADB API lib)
@@ -35,7 +46,12 @@ import java.util.stream.Stream;
 
 public class DeviceInfoAdbCommands {
 
+    private static final Logger LOG = LogManager.getLogger(DeviceInfoAdbCommands.class);
+
     public static final String PROP_DEVICE_NAME = "ro.product.name";
+
+    // Marker echoed ahead of every probe output in a batched probe script
+    static final String PROBE_MARKER = "__CS_PROBE__:";
     public static final String CMD_DIALER_DEVICE_INFO = "SCREEN_STATE=$(dumpsys power | grep 'mHolding'); "
             + "DISPLAY_STATUS=$(echo \"$SCREEN_STATE\" | grep mHoldingDisplaySuspendBlocker | cut -d '=' -f 2); "
             + "PHONE_LOCKED=$(dumpsys window | grep mDreamingLockscreen | tr -s ' ' | cut -d ' ' -f 3 | cut -d '=' -f 2); "
@@ -45,90 +61,225 @@ public class DeviceInfoAdbCommands {
             + "service call phone 1 s16 '*#06#' && sleep 1 && input text '#06#'; "
             + "uiautomator dump /sdcard/device-info.xml; am force-stop com.google.android.dialer;";
 
+    // Classpath resource overriding probe commands, e.g. for Android versions newer than this library
+    static final String OVERRIDES_RESOURCE = "cornerstone-adb-probes.properties";
+    // Devices above the latest API level listed here or in the overrides use the commands of that level
+    private static final int LATEST_KNOWN_API_LEVEL = 34;
+
+    // Immutable command table of every API level, index is the API level
+    private static final List<Map<DeviceProbe, String>> COMMANDS_BY_API_LEVEL;
+    static {
+        List<CommandOverride> overrides = getBuiltInOverrides();
+        overrides.addAll(loadOverrides(OVERRIDES_RESOURCE));
+        COMMANDS_BY_API_LEVEL = buildCommandTable(getLatestCommands(), overrides);
+    }
+
     // Android 14 (API 34)
-    private static Map<String, String> commands = new HashMap<String, String>() {
-        {
-            put("PROP_PRODUCT_DEVICE", "ro.product.product.device");
-            put("PROP_SIM_STATE", "gsm.sim.state");
-            put("PROP_SIM_OPERATOR", "gsm.operator.alpha");
-            put("PROP_GSM_NETWORK_TYPE", "gsm.network.type");
-//            put("CMD_GET_IMEI", "imei=$(cat /sdcard/device-info.xml | sed s/\\>\\<\\/\\\\n/g | grep -A1 IMEI | tail -n1); echo ${imei} | awk -F 'text=\"' '{print $2}' | cut -c1-16");
-            put("CMD_GET_IMEI", "service call iphonesubinfo 1 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
-            put("CMD_GET_IMSI", "service call iphonesubinfo 9 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
-            put("CMD_GET_ICCID", "service call iphonesubinfo 13 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
-            put("CMD_GET_NUMBER", "service call iphonesubinfo 15 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
-            put("CMD_GET_WIFI_ON", "settings get global wifi_on");
-            put("CMD_GET_MOBILE_DATA", "settings get global mobile_data");
-            put("CMD_GET_AIRPLANE_MODE", "settings get global airplane_mode_on");
-            put("CMD_GET_BLUETOOTH_ON", "settings get global bluetooth_on");
-            put("CMD_GET_NFC_STATUS", "if dumpsys nfc | grep 'mState='; then echo $nfcdumpsys | grep 'mState='; return; else dumpsys nfc | grep '^State: '; fi");
+    private static Map<DeviceProbe, String> getLatestCommands() {
+        Map<DeviceProbe, String> commands = new EnumMap<DeviceProbe, String>(DeviceProbe.class);
+        commands.put(DeviceProbe.PROP_PRODUCT_DEVICE, "ro.product.product.device");
+        commands.put(DeviceProbe.PROP_SIM_STATE, "gsm.sim.state");
+        commands.put(DeviceProbe.PROP_SIM_OPERATOR, "gsm.operator.alpha");
+        commands.put(DeviceProbe.PROP_GSM_NETWORK_TYPE, "gsm.network.type");
+//        commands.put(DeviceProbe.CMD_GET_IMEI, "imei=$(cat /sdcard/device-info.xml | sed s/\\>\\<\\/\\\\n/g | grep -A1 IMEI | tail -n1); echo ${imei} | awk -F 'text=\"' '{print $2}' | cut -c1-16");
+        commands.put(DeviceProbe.CMD_GET_IMEI, "service call iphonesubinfo 1 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
+        commands.put(DeviceProbe.CMD_GET_IMSI, "service call iphonesubinfo 9 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
+        commands.put(DeviceProbe.CMD_GET_ICCID, "service call iphonesubinfo 13 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
+        commands.put(DeviceProbe.CMD_GET_NUMBER, "service call iphonesubinfo 15 s16 com.android.shell | cut -c 50-64 | tr -d '.[:space:]'");
+        commands.put(DeviceProbe.CMD_GET_WIFI_ON, "settings get global wifi_on");
+        commands.put(DeviceProbe.CMD_GET_MOBILE_DATA, "settings get global mobile_data");
+        commands.put(DeviceProbe.CMD_GET_AIRPLANE_MODE, "settings get global airplane_mode_on");
+        commands.put(DeviceProbe.CMD_GET_BLUETOOTH_ON, "settings get global bluetooth_on");
+        commands.put(DeviceProbe.CMD_GET_NFC_STATUS, "if dumpsys nfc | grep 'mState='; then echo $nfcdumpsys | grep 'mState='; return; else dumpsys nfc | grep '^State: '; fi");
+        return commands;
+    }
+
+    private static List<CommandOverride> getBuiltInOverrides() {
+        List<CommandOverride> overrides = new ArrayList<CommandOverride>();
+
+        // Android 11, 12, 12L, 13 (API 30, 31, 32, 33)
+        overrides.add(new CommandOverride(30, 33, DeviceProbe.CMD_GET_IMEI, "service call iphonesubinfo 1 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(30, 33, DeviceProbe.CMD_GET_IMSI, "service call iphonesubinfo 9 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'"));
+        // getIccSerialNumberWithFeature()
+        overrides.add(new CommandOverride(30, 33, DeviceProbe.CMD_GET_ICCID, "service call iphonesubinfo 13 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(30, 33, DeviceProbe.CMD_GET_NUMBER, "service call iphonesubinfo 19 | cut -c 52-66 | tr -d '.[:space:]'"));
+
+        // Android 9 & 10
+        overrides.add(new CommandOverride(28, 29, DeviceProbe.CMD_GET_IMEI, "service call iphonesubinfo 1 | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(28, 29, DeviceProbe.CMD_GET_IMSI, "service call iphonesubinfo 7 | cut -c 52-66 | tr -d '.[:space:]'"));
+        // getIccSerialNumber() or getIccSerialNumberForSubscriber()
+        overrides.add(new CommandOverride(28, 29, DeviceProbe.CMD_GET_ICCID, "service call iphonesubinfo 11 | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(28, 29, DeviceProbe.CMD_GET_NUMBER, "service call iphonesubinfo 13 | cut -c 52-66 | tr -d '.[:space:]'"));
+
+        // Android 8.0.0 & 8.1.0
+        overrides.add(new CommandOverride(26, 27, DeviceProbe.CMD_GET_IMEI, "service call iphonesubinfo 1 | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(26, 27, DeviceProbe.CMD_GET_IMSI, "service call iphonesubinfo 7 | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(26, 27, DeviceProbe.CMD_GET_ICCID, "service call iphonesubinfo 11 | cut -c 52-66 | tr -d '.[:space:]'"));
+        overrides.add(new CommandOverride(26, 27, DeviceProbe.CMD_GET_NUMBER, "service call iphonesubinfo 14 | cut -c 52-66 | tr -d '.[:space:]'"));
+
+        return overrides;
+    }
+
+    /**
+     * Returns the probe commands of the given API level. The returned map is immutable and shared, nothing is
+     * computed on lookup.
+     */
+    public static Map<DeviceProbe, String> getCommands(int apiLevel) {
+        int index = Math.max(0, Math.min(apiLevel, COMMANDS_BY_API_LEVEL.size() - 1));
+        return COMMANDS_BY_API_LEVEL.get(index);
+    }
+
+    /**
+     * Builds the command table of every API level up to the highest one known. Built-in overrides are applied
+     * first, then resource overrides, each with narrower API ranges winning over wider ones. Levels with equal
+     * commands share the same map.
+     */
+    static List<Map<DeviceProbe, String>> buildCommandTable(Map<DeviceProbe, String> latestCommands, List<CommandOverride> overrides) {
+        int maxApiLevel = LATEST_KNOWN_API_LEVEL;
+        for (CommandOverride override : overrides) {
+            maxApiLevel = Math.max(maxApiLevel, override.toApiLevel == Integer.MAX_VALUE ? override.fromApiLevel : override.toApiLevel);
+        }
+
+        List<CommandOverride> sortedOverrides = new ArrayList<CommandOverride>(overrides);
+        // Stable sort keeps built-in overrides ahead of resource overrides of the same width
+        sortedOverrides.sort(Comparator.comparingLong((CommandOverride override) -> (long) override.toApiLevel - override.fromApiLevel).reversed());
+
+        List<Map<DeviceProbe, String>> table = new ArrayList<Map<DeviceProbe, String>>(maxApiLevel + 1);
+        Map<DeviceProbe, String> previous = null;
+        for (int apiLevel = 0; apiLevel <= maxApiLevel; apiLevel++) {
+            Map<DeviceProbe, String> commands = new EnumMap<DeviceProbe, String>(latestCommands);
+            for (CommandOverride override : sortedOverrides) {
+                if (override.fromApiLevel <= apiLevel && apiLevel <= override.toApiLevel) {
+                    commands.put(override.probe, override.command);
+                }
+            }
+            if (previous == null || !previous.equals(commands)) {
+                previous = Collections.unmodifiableMap(commands);
+            }
+            table.add(previous);
         }
-    };
-
-    // Android 11, 12, 12L, 13 (API 30, 31, 32, 33)
-    private static Map<String, String> commands_API_30_TO_33 = new HashMap<String, String>() {
-        {
-            put("CMD_GET_IMEI", "service call iphonesubinfo 1 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_IMSI", "service call iphonesubinfo 9 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'");
-            // getIccSerialNumberWithFeature()
-            put("CMD_GET_ICCID", "service call iphonesubinfo 13 s16 com.android.shell | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_NUMBER", "service call iphonesubinfo 19 | cut -c 52-66 | tr -d '.[:space:]'");
+        return Collections.unmodifiableList(table);
+    }
+
+    /**
+     * Loads command overrides from all classpath resources with the given name. Each key is a probe name, optionally
+     * followed by the API levels it applies to: 'CMD_GET_IMEI' for all levels, 'CMD_GET_IMEI.35' for level 35 and
+     * later, 'CMD_GET_IMEI.30-33' for levels 30 to 33. Invalid entries are skipped.
+     */
+    static List<CommandOverride> loadOverrides(String resourceName) {
+        List<CommandOverride> overrides = new ArrayList<CommandOverride>();
+        try {
+            Enumeration<URL> resources = DeviceInfoAdbCommands.class.getClassLoader().getResources(resourceName);
+            while (resources.hasMoreElements()) {
+                URL resource = resources.nextElement();
+                Properties properties = new Properties();
+                try (InputStream in = resource.openStream()) {
+                    properties.load(in);
+                }
+                for (String key : properties.stringPropertyNames()) {
+                    CommandOverride override = parseOverride(key, properties.getProperty(key).trim());
+                    if (override == null) {
+                        LOG.warn("Skipping invalid probe command override: '{}' in '{}'", key, resource);
+                    } else {
+                        overrides.add(override);
+                    }
+                }
+                LOG.info("Loaded probe command overrides from '{}'", resource);
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to load probe command overrides. Error: '{}'", e.getMessage());
         }
-    };
-    
-    // Android 9 & 10
-    private static Map<String, String> commands_API_28_TO_29 = new HashMap<String, String>() {
-        {
-            put("CMD_GET_IMEI", "service call iphonesubinfo 1 | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_IMSI", "service call iphonesubinfo 7 | cut -c 52-66 | tr -d '.[:space:]'");
-            // getIccSerialNumber() or getIccSerialNumberForSubscriber()
-            put("CMD_GET_ICCID", "service call iphonesubinfo 11 | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_NUMBER", "service call iphonesubinfo 13 | cut -c 52-66 | tr -d '.[:space:]'");
+        return overrides;
+    }
+
+    static CommandOverride parseOverride(String key, String command) {
+        int separator = key.indexOf('.');
+        DeviceProbe probe = DeviceProbe.forName(separator < 0 ? key : key.substring(0, separator));
+        if (probe == null || command.isEmpty()) {
+            return null;
+        }
+        if (separator < 0) {
+            return new CommandOverride(0, Integer.MAX_VALUE, probe, command);
         }
-    };
-
-    // Android 8.0.0 & 8.1.0
-    private static Map<String, String> commands_API_26_TO_27 = new HashMap<String, String>() {
-        {
-            put("CMD_GET_IMEI", "service call iphonesubinfo 1 | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_IMSI", "service call iphonesubinfo 7 | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_ICCID", "service call iphonesubinfo 11 | cut -c 52-66 | tr -d '.[:space:]'");
-            put("CMD_GET_NUMBER", "service call iphonesubinfo 14 | cut -c 52-66 | tr -d '.[:space:]'");
+
+        String[] apiLevels = key.substring(separator + 1).split("-", -1);
+        try {
+            int fromApiLevel = Integer.parseInt(apiLevels[0]);
+            int toApiLevel = apiLevels.length == 1 ? Integer.MAX_VALUE : Integer.parseInt(apiLevels[1]);
+            if (apiLevels.length > 2 || fromApiLevel < 0 || toApiLevel < fromApiLevel) {
+                return null;
+            }
+            return new CommandOverride(fromApiLevel, toApiLevel, probe, command);
+        } catch (NumberFormatException e) {
+            return null;
         }
-    };
-
-    
-    
-    public static Map<String, String> getCommands(int apiLevel) {
-        Map<String, String> override;
-
-        switch (apiLevel) {
-        default:
-            override = commands;
-            break;
-
-        case 33:
-        case 32:
-        case 31:
-        case 30:
-            override = commands_API_30_TO_33;
-            break;
-
-        case 29:
-        case 28:
-            override = commands_API_28_TO_29;
-            break;
-
-        case 27:
-        case 26:
-            override = commands_API_26_TO_27;
-            break;
+    }
+
+    static final class CommandOverride {
+        private final int fromApiLevel;
+        private final int toApiLevel;
+        private final DeviceProbe probe;
+        private final String command;
+
+        CommandOverride(int fromApiLevel, int toApiLevel, DeviceProbe probe, String command) {
+            this.fromApiLevel = fromApiLevel;
+            this.toApiLevel = toApiLevel;
+            this.probe = probe;
+            this.command = command;
+        }
+    }
+
+    /**
+     * Builds a single shell script running all given probes one after another. Each probe output is
+     * preceded by a marker line so the combined output can be split back with {@link #parseProbeOutput(String)}.
+     * Property probes are fetched with 'getprop', all other probes are run as shell commands.
+     */
+    static String buildProbeScript(Map<DeviceProbe, String> commands, Collection<DeviceProbe> probes) {
+        StringBuilder script = new StringBuilder();
+        for (DeviceProbe probe : probes) {
+            String cmd = commands.get(probe);
+            if (cmd == null) {
+                continue;
+            }
+            // Leading echo makes sure the marker starts on a new line even if previous output had no trailing newline
+            script.append("echo; echo '").append(PROBE_MARKER).append(probe.name()).append("'; ");
+            if (probe.isProperty()) {
+                script.append("getprop ").append(cmd).append("; ");
+            } else {
+                // Wrap in a function so that probes using 'return' do not end the whole script
+                script.append("__cs_probe() {\n").append(cmd).append("\n}; __cs_probe; ");
+            }
+        }
+        return script.toString();
+    }
+
+    /**
+     * Splits the output of a script built by {@link #buildProbeScript(Map, Collection)} back into per probe results.
+     * Results are trimmed and blank results are mapped to null, same as for individually executed probes.
+     * Output of unknown probes is dropped.
+     */
+    static Map<DeviceProbe, String> parseProbeOutput(String output) {
+        Map<DeviceProbe, StringBuilder> rawResults = new EnumMap<DeviceProbe, StringBuilder>(DeviceProbe.class);
+        if (output != null) {
+            StringBuilder current = null;
+            for (String line : output.split("\\r?\\n")) {
+                if (line.startsWith(PROBE_MARKER)) {
+                    DeviceProbe probe = DeviceProbe.forName(line.substring(PROBE_MARKER.length()).trim());
+                    current = probe == null ? null : new StringBuilder();
+                    if (probe != null) {
+                        rawResults.put(probe, current);
+                    }
+                } else if (current != null) {
+                    current.append(line).append('\n');
+                }
+            }
         }
 
-//        return Stream.concat(commands.entrySet().stream(), override.entrySet().stream()).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
-        return Stream.of(commands, override).flatMap(map -> map.entrySet().stream())
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue(), (m1, m2) -> {
-                    return m2;
-                }));
+        Map<DeviceProbe, String> results = new EnumMap<DeviceProbe, String>(DeviceProbe.class);
+        rawResults.forEach((key, value) -> {
+            String result = value.toString().trim();
+            results.put(key, result.isBlank() ? null : result);
+        });
+        return results;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package com.github.cornerstonews.adb;
+
+/**
+ * Device info probes, the command of each probe per API level is looked up with
+ * {@link DeviceInfoAdbCommands#getCommands(int)}. Probes starting with 'PROP_' read a system property with
+ * 'getprop', all other probes are run as shell commands.
+ */
+public enum DeviceProbe {
+    PROP_PRODUCT_DEVICE,
+    PROP_SIM_STATE,
+    PROP_SIM_OPERATOR,
+    PROP_GSM_NETWORK_TYPE,
+    CMD_GET_IMEI,
+    CMD_GET_IMSI,
+    CMD_GET_ICCID,
+    CMD_GET_NUMBER,
+    CMD_GET_WIFI_ON,
+    CMD_GET_MOBILE_DATA,
+    CMD_GET_AIRPLANE_MODE,
+    CMD_GET_BLUETOOTH_ON,
+    CMD_GET_NFC_STATUS;
+
+    private final boolean property = this.name().startsWith("PROP_");
+
+    public boolean isProperty() {
+        return this.property;
+    }
+
+    /**
+     * Returns the probe with the given name, or null if there is no such probe.
+     */
+    static DeviceProbe forName(String name) {
+        for (DeviceProbe probe : values()) {
+            if (probe.name().equals(name)) {
+                return probe;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,183 @@
+package com.github.cornerstonews.adb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Registry of the known devices, keyed by serial.
+ *
+ * Readers get an immutable {@link Snapshot} which is handed out without copying, every change publishes a new
+ * snapshot with a higher version. Besides the lookup by serial, a snapshot indexes the devices by model, API level,
+ * SIM operator and online state, based on the last device info reported to {@link #update(AdbExecutor, DeviceDO)}.
+ */
+public class DeviceRegistry {
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private volatile Snapshot snapshot = new Snapshot(0, Collections.<String, Entry>emptyMap());
+
+    private static final class Entry {
+        private final AdbExecutor device;
+        private final DeviceDO deviceInfo;
+        private final String model;
+        private final int apiLevel;
+        private final String simOperator;
+        private final boolean online;
+
+        private Entry(AdbExecutor device, DeviceDO deviceInfo) {
+            this.device = device;
+            this.deviceInfo = deviceInfo;
+            this.model = deviceInfo == null ? null : deviceInfo.getModel();
+            this.apiLevel = deviceInfo == null ? 0 : deviceInfo.getApiLevel();
+            this.simOperator = deviceInfo == null ? null : deviceInfo.getSimOperator();
+            this.online = deviceInfo != null && deviceInfo.isOnline();
+        }
+    }
+
+    /**
+     * Immutable view of the registry at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long version;
+        private final Map<String, AdbExecutor> devicesBySerial;
+        private final List<AdbExecutor> devices;
+        private final Map<String, List<AdbExecutor>> devicesByModel;
+        private final Map<Integer, List<AdbExecutor>> devicesByApiLevel;
+        private final Map<String, List<AdbExecutor>> devicesBySimOperator;
+        private final List<AdbExecutor> onlineDevices;
+        private final List<AdbExecutor> offlineDevices;
+
+        private Snapshot(long version, Map<String, Entry> entries) {
+            this.version = version;
+            Map<String, AdbExecutor> devicesBySerial = new LinkedHashMap<String, AdbExecutor>();
+            List<AdbExecutor> onlineDevices = new ArrayList<AdbExecutor>();
+            List<AdbExecutor> offlineDevices = new ArrayList<AdbExecutor>();
+            for (Entry entry : entries.values()) {
+                devicesBySerial.put(entry.device.getDeviceSerial(), entry.device);
+                (entry.online ? onlineDevices : offlineDevices).add(entry.device);
+            }
+            this.devicesBySerial = Collections.unmodifiableMap(devicesBySerial);
+            this.devices = Collections.unmodifiableList(new ArrayList<AdbExecutor>(devicesBySerial.values()));
+            this.devicesByModel = index(entries, entry -> entry.model);
+            this.devicesByApiLevel = index(entries, entry -> entry.apiLevel);
+            this.devicesBySimOperator = index(entries, entry -> entry.simOperator);
+            this.onlineDevices = Collections.unmodifiableList(onlineDevices);
+            this.offlineDevices = Collections.unmodifiableList(offlineDevices);
+        }
+
+        private static <K> Map<K, List<AdbExecutor>> index(Map<String, Entry> entries, Function<Entry, K> key) {
+            Map<K, List<AdbExecutor>> index = new HashMap<K, List<AdbExecutor>>();
+            for (Entry entry : entries.values()) {
+                K value = key.apply(entry);
+                if (value != null) {
+                    index.computeIfAbsent(value, k -> new ArrayList<AdbExecutor>()).add(entry.device);
+                }
+            }
+            index.replaceAll((k, devices) -> Collections.unmodifiableList(devices));
+            return Collections.unmodifiableMap(index);
+        }
+
+        /**
+         * Returns the version of this snapshot, which increases with every change of the registry.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public int size() {
+            return devices.size();
+        }
+
+        public AdbExecutor getDevice(String deviceSerial) {
+            return devicesBySerial.get(deviceSerial);
+        }
+
+        public List<AdbExecutor> getDevices() {
+            return devices;
+        }
+
+        public List<AdbExecutor> getDevicesByModel(String model) {
+            return devicesByModel.getOrDefault(model, Collections.<AdbExecutor>emptyList());
+        }
+
+        public List<AdbExecutor> getDevicesByApiLevel(int apiLevel) {
+            return devicesByApiLevel.getOrDefault(apiLevel, Collections.<AdbExecutor>emptyList());
+        }
+
+        public List<AdbExecutor> getDevicesBySimOperator(String simOperator) {
+            return devicesBySimOperator.getOrDefault(simOperator, Collections.<AdbExecutor>emptyList());
+        }
+
+        public List<AdbExecutor> getOnlineDevices() {
+            return onlineDevices;
+        }
+
+        public List<AdbExecutor> getOfflineDevices() {
+            return offlineDevices;
+        }
+    }
+
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    public AdbExecutor getDevice(String deviceSerial) {
+        return this.snapshot.getDevice(deviceSerial);
+    }
+
+    /**
+     * Adds the device, replacing a device with the same serial.
+     *
+     * @return the replaced device, or null
+     */
+    synchronized AdbExecutor put(AdbExecutor device) {
+        Entry replaced = this.entries.put(device.getDeviceSerial(), new Entry(device, device.getDeviceStatus()));
+        this.publish();
+        return replaced == null ? null : replaced.device;
+    }
+
+    /**
+     * Adds the devices whose serial is not registered yet.
+     */
+    synchronized void putAllAbsent(Iterable<AdbExecutor> devices) {
+        for (AdbExecutor device : devices) {
+            this.entries.computeIfAbsent(device.getDeviceSerial(), serial -> new Entry(device, device.getDeviceStatus()));
+        }
+        this.publish();
+    }
+
+    /**
+     * Re-indexes the device with its latest device info. Ignored if the device has been removed or replaced.
+     *
+     * @return the device info the device was indexed with before, or null if the update was ignored
+     */
+    synchronized DeviceDO update(AdbExecutor device, DeviceDO deviceInfo) {
+        Entry entry = this.entries.get(device.getDeviceSerial());
+        if (entry == null || entry.device != device) {
+            return null;
+        }
+        this.entries.put(device.getDeviceSerial(), new Entry(device, deviceInfo));
+        this.publish();
+        return entry.deviceInfo;
+    }
+
+    /**
+     * @return the removed device, or null
+     */
+    synchronized AdbExecutor remove(String deviceSerial) {
+        Entry removed = this.entries.remove(deviceSerial);
+        if (removed != null) {
+            this.publish();
+        }
+        return removed == null ? null : removed.device;
+    }
+
+    private void publish() {
+        this.snapshot = new Snapshot(this.snapshot.getVersion() + 1, this.entries);
+    }
+}
@@ -0,0 +1,211 @@
+package com.github.cornerstonews.adb;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded worker pool running all background device work (device info refreshes, battery queries, ...).
+ *
+ * Work can either run unordered with {@link #execute(Runnable)} or serialized per device with
+ * {@link #execute(String, Runnable)}, in which case at most one task per device runs at a time. Tasks beyond
+ * the queue capacity, or beyond the device queue capacity for a single device, are rejected with a
+ * {@link RejectedExecutionException} instead of spawning more threads.
+ */
+public class DeviceScheduler {
+
+    private static final Logger LOG = LogManager.getLogger(DeviceScheduler.class);
+
+    public static final int DEFAULT_MAX_CONCURRENCY = 16;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_DEVICE_QUEUE_CAPACITY = 64;
+
+    private static final ThreadLocal<DeviceScheduler> CURRENT_SCHEDULER = new ThreadLocal<DeviceScheduler>();
+    private static final AtomicInteger SCHEDULER_COUNT = new AtomicInteger();
+    private static DeviceScheduler defaultScheduler;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, DeviceLane> deviceLanes = new ConcurrentHashMap<String, DeviceLane>();
+    private final AtomicInteger pendingDeviceTasks = new AtomicInteger();
+    private final int deviceQueueCapacity;
+
+    public DeviceScheduler() {
+        this(DEFAULT_MAX_CONCURRENCY, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public DeviceScheduler(int maxConcurrency, int queueCapacity) {
+        this(maxConcurrency, queueCapacity, DEFAULT_DEVICE_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param deviceQueueCapacity max number of tasks waiting on a single device
+     */
+    public DeviceScheduler(int maxConcurrency, int queueCapacity, int deviceQueueCapacity) {
+        this.deviceQueueCapacity = deviceQueueCapacity;
+        String threadPrefix = "adb-device-worker-" + SCHEDULER_COUNT.incrementAndGet() + "-";
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(() -> {
+                        CURRENT_SCHEDULER.set(this);
+                        runnable.run();
+                    }, threadPrefix + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized DeviceScheduler getDefault() {
+        if (defaultScheduler == null) {
+            defaultScheduler = new DeviceScheduler();
+        }
+        return defaultScheduler;
+    }
+
+    /**
+     * Replaces the scheduler used by default for background device work. Managers and executors created before
+     * keep using the previous default scheduler, which is left running; shutting it down is up to the caller.
+     */
+    public static synchronized void setDefault(DeviceScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    /**
+     * Runs the task on a worker.
+     */
+    public void execute(Runnable task) {
+        this.executor.execute(task);
+    }
+
+    /**
+     * Runs the task on a worker. When called from a worker of this scheduler, the task runs on the calling thread
+     * so that work waiting on nested work can not starve the pool.
+     */
+    public void executeNested(Runnable task) {
+        if (this.isCurrentWorker()) {
+            task.run();
+            return;
+        }
+        this.executor.execute(task);
+    }
+
+    /**
+     * Returns whether the calling thread is a worker of this scheduler, which must not wait on work queued on it.
+     */
+    boolean isCurrentWorker() {
+        return CURRENT_SCHEDULER.get() == this;
+    }
+
+    /**
+     * Runs the task on a worker, after all tasks previously submitted for the same device have finished.
+     *
+     * @throws RejectedExecutionException if the device already has the max number of tasks waiting
+     */
+    public void execute(String deviceSerial, Runnable task) {
+        this.getDeviceLane(deviceSerial).execute(task);
+    }
+
+    /**
+     * Returns an executor running its tasks serialized for the given device.
+     */
+    public Executor forDevice(String deviceSerial) {
+        return this.getDeviceLane(deviceSerial);
+    }
+
+    private DeviceLane getDeviceLane(String deviceSerial) {
+        return this.deviceLanes.computeIfAbsent(deviceSerial, DeviceLane::new);
+    }
+
+    public int getMaxConcurrency() {
+        return this.executor.getMaximumPoolSize();
+    }
+
+    public void setMaxConcurrency(int maxConcurrency) {
+        if (maxConcurrency > this.executor.getMaximumPoolSize()) {
+            this.executor.setMaximumPoolSize(maxConcurrency);
+            this.executor.setCorePoolSize(maxConcurrency);
+        } else {
+            this.executor.setCorePoolSize(maxConcurrency);
+            this.executor.setMaximumPoolSize(maxConcurrency);
+        }
+    }
+
+    public int getQueueCapacity() {
+        return this.executor.getQueue().size() + this.executor.getQueue().remainingCapacity();
+    }
+
+    public int getDeviceQueueCapacity() {
+        return this.deviceQueueCapacity;
+    }
+
+    /**
+     * Returns the number of tasks waiting for a worker, including tasks waiting on their device.
+     */
+    public int getQueueDepth() {
+        return this.executor.getQueue().size() + this.pendingDeviceTasks.get();
+    }
+
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+    private final class DeviceLane implements Executor {
+        private final String deviceSerial;
+        private final Queue<Runnable> tasks = new ArrayDeque<Runnable>();
+        private boolean running = false;
+
+        private DeviceLane(String deviceSerial) {
+            this.deviceSerial = deviceSerial;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            if (this.running) {
+                if (this.tasks.size() >= deviceQueueCapacity) {
+                    throw new RejectedExecutionException("Device queue full: " + this.deviceSerial);
+                }
+                this.tasks.add(task);
+                pendingDeviceTasks.incrementAndGet();
+                return;
+            }
+            executor.execute(() -> this.runTasks(task));
+            this.running = true;
+        }
+
+        private void runTasks(Runnable firstTask) {
+            Runnable task = firstTask;
+            while (task != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.warn("'{}' running device task. Error: '{}'", e.getClass().getSimpleName(), e.getMessage());
+                    LOG.trace("'{}' running device task for device: '{}'", e.getClass().getSimpleName(), this.deviceSerial, e);
+                }
+
+                synchronized (this) {
+                    task = this.tasks.poll();
+                    if (task == null) {
+                        this.running = false;
+                    } else {
+                        pendingDeviceTasks.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.github.cornerstonews.adb;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.MultiLineReceiver;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Watches settings of a device with one long-running shell command, instead of polling each setting with its own
+ * 'settings get'.
+ *
+ * The command checks the watched global settings once a second on the device, with a single native
+ * 'cmd settings list' call, and only writes output when one of them changed. Every change is handed to the
+ * listener keyed by probe. The watcher runs on its own thread, a failed command is restarted after a delay until
+ * the watcher is stopped.
+ */
+class DeviceStateWatcher {
+
+    private static final Logger LOG = LogManager.getLogger(DeviceStateWatcher.class);
+
+    private static final String STATE_MARKER = "__CS_STATE__ ";
+    private static final String STATE_END_MARKER = "__CS_STATE_END__";
+    private static final long RESTART_DELAY_MS = 5 * 1000;
+
+    // Watched global settings and the probes they answer
+    static final Map<String, DeviceProbe> WATCHED_SETTINGS;
+    static {
+        Map<String, DeviceProbe> watchedSettings = new LinkedHashMap<String, DeviceProbe>();
+        watchedSettings.put("wifi_on", DeviceProbe.CMD_GET_WIFI_ON);
+        watchedSettings.put("mobile_data", DeviceProbe.CMD_GET_MOBILE_DATA);
+        watchedSettings.put("airplane_mode_on", DeviceProbe.CMD_GET_AIRPLANE_MODE);
+        watchedSettings.put("bluetooth_on", DeviceProbe.CMD_GET_BLUETOOTH_ON);
+        WATCHED_SETTINGS = Collections.unmodifiableMap(watchedSettings);
+    }
+
+    interface Listener {
+        /**
+         * Receives the changed probe results.
+         */
+        void stateChanged(DeviceStateWatcher watcher, Map<DeviceProbe, String> probeResults);
+
+        /**
+         * Called when the watch command failed, until it has been restarted changes are missed. Also called once
+         * the watcher thread ends, which may be after a new watcher has been started.
+         */
+        void watchInterrupted(DeviceStateWatcher watcher);
+    }
+
+    private final AdbExecutor adbExecutor;
+    private final Listener listener;
+    private volatile boolean running = false;
+    private Thread thread;
+
+    DeviceStateWatcher(AdbExecutor adbExecutor, Listener listener) {
+        this.adbExecutor = adbExecutor;
+        this.listener = listener;
+    }
+
+    synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+        this.thread = new Thread(this::watch, "adb-state-watcher-" + this.adbExecutor.getDeviceSerial());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    synchronized void stop() {
+        this.running = false;
+        if (this.thread != null) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    boolean isRunning() {
+        return this.running;
+    }
+
+    static String buildWatchScript() {
+        StringBuilder pattern = new StringBuilder();
+        for (String setting : WATCHED_SETTINGS.keySet()) {
+            pattern.append(pattern.length() == 0 ? "" : "|").append(setting);
+        }
+        // 'cmd settings' is a binder call, much cheaper than the 'settings' script starting a runtime every time
+        return "s='cmd settings'; cmd settings list global > /dev/null 2>&1 || s=settings; p=; "
+                + "while :; do c=$($s list global | grep -E '^(" + pattern + ")='); "
+                + "if [ \"$c\" != \"$p\" ]; then echo \"$c\" | sed 's/^/" + STATE_MARKER + "/'; echo " + STATE_END_MARKER + "; p=$c; fi; "
+                + "sleep 1; done";
+    }
+
+    private void watch() {
+        String script = buildWatchScript();
+        while (this.running) {
+            LOG.debug("Starting device state watcher");
+            LOG.trace("Starting device state watcher for device: '{}'", this.adbExecutor.getDeviceSerial());
+            try {
+                this.adbExecutor.executeShellCommand(script, new StateReceiver(), 0, 0, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException | IOException | RuntimeException e) {
+                LOG.debug("Device state watcher failed. Error: '{}'", e.getMessage());
+                LOG.trace("Device state watcher failed for device: '{}'", this.adbExecutor.getDeviceSerial(), e);
+            }
+            if (!this.running) {
+                break;
+            }
+            this.listener.watchInterrupted(this);
+            try {
+                Thread.sleep(RESTART_DELAY_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        this.listener.watchInterrupted(this);
+    }
+
+    private final class StateReceiver extends MultiLineReceiver {
+        private final Map<DeviceProbe, String> pendingResults = new EnumMap<DeviceProbe, String>(DeviceProbe.class);
+
+        @Override
+        public boolean isCancelled() {
+            return !running;
+        }
+
+        @Override
+        public void processNewLines(String[] lines) {
+            for (String line : lines) {
+                if (line.startsWith(STATE_MARKER)) {
+                    String[] setting = line.substring(STATE_MARKER.length()).split("=", 2);
+                    DeviceProbe probe = WATCHED_SETTINGS.get(setting[0].trim());
+                    if (probe != null && setting.length == 2) {
+                        this.pendingResults.put(probe, setting[1].trim());
+                    }
+                } else if (line.equals(STATE_END_MARKER)) {
+                    Map<DeviceProbe, String> results = new EnumMap<DeviceProbe, String>(this.pendingResults);
+                    this.pendingResults.clear();
+                    try {
+                        listener.stateChanged(DeviceStateWatcher.this, results);
+                    } catch (RuntimeException e) {
+                        // Catch possible exception thrown by listeners, later changes are delivered anyway
+                        LOG.warn("Exception thrown by device state listener '{}'. Error: '{}'", listener.getClass().getName(), e.getMessage());
+                        LOG.trace("Exception thrown by device state listener for device: '{}'", adbExecutor.getDeviceSerial(), e);
+                    }
+                }
+            }
+        }
+    }
+}
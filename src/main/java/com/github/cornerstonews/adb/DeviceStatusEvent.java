@@ -0,0 +1,82 @@
+package com.github.cornerstonews.adb;
+
+import com.github.cornerstonews.adb.AdbManager.DeviceStatus;
+
+/**
+ * Change of a device's status, as delivered to {@link AdbManager.IDeviceStatusListener}s.
+ */
+public class DeviceStatusEvent {
+
+    private final String deviceSerial;
+    private final DeviceStatus status;
+    private final DeviceDO device;
+    private final DeviceDelta delta;
+    private final long timestamp;
+
+    public DeviceStatusEvent(String deviceSerial, DeviceStatus status, DeviceDO device) {
+        this(deviceSerial, status, device, null);
+    }
+
+    public DeviceStatusEvent(String deviceSerial, DeviceStatus status, DeviceDO device, DeviceDelta delta) {
+        this.deviceSerial = deviceSerial;
+        this.status = status;
+        this.device = device;
+        this.delta = delta;
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns whether a pending event of the same device may be combined with this later event. Only events of the
+     * same status are, connects and disconnects never are so that listeners see every one of them.
+     */
+    boolean canCoalesce(DeviceStatusEvent earlier) {
+        return this.status == earlier.status && this.status != DeviceStatus.CONNECTED && this.status != DeviceStatus.DISCONNECTED;
+    }
+
+    /**
+     * Combines a pending event with this later event of the same device and status. The result has the latest
+     * device, and all field changes of both events.
+     */
+    DeviceStatusEvent coalesce(DeviceStatusEvent earlier) {
+        if (earlier.delta == null) {
+            return this;
+        }
+        DeviceDelta combinedDelta = this.delta == null ? earlier.delta : earlier.delta.followedBy(this.delta);
+        return new DeviceStatusEvent(this.deviceSerial, this.status, this.device, combinedDelta);
+    }
+
+    public String getDeviceSerial() {
+        return deviceSerial;
+    }
+
+    public DeviceStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * Returns the device as known when the event was raised, never null.
+     */
+    public DeviceDO getDevice() {
+        return device;
+    }
+
+    /**
+     * Returns the fields which changed since the previous event of the device, or null if the event doesn't come
+     * with field changes.
+     */
+    public DeviceDelta getDelta() {
+        return delta;
+    }
+
+    /**
+     * Returns the time the event was raised, in milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "DeviceStatusEvent [deviceSerial=" + deviceSerial + ", status=" + status + ", timestamp=" + timestamp + "]";
+    }
+}
@@ -49,6 +49,9 @@ public class FileNode {
     @XmlElement
     private List<FileNode> children;
 
+    @XmlElement
+    private Integer totalChildren;
+
     public FileNode() {
     }
 
@@ -156,6 +159,17 @@ public class FileNode {
         this.children = children;
     }
 
+    /**
+     * Returns the number of children of the directory when only a page of them is populated, null otherwise.
+     */
+    public Integer getTotalChildren() {
+        return totalChildren;
+    }
+
+    public void setTotalChildren(Integer totalChildren) {
+        this.totalChildren = totalChildren;
+    }
+
     public boolean hasChildren() {
         return this.children != null && !this.children.isEmpty();
     }
@@ -214,6 +228,7 @@ public class FileNode {
                 .append("\", appPackage\": \"").append(appPackage)
                 .append("\", root\": \"").append(root)
                 .append("\", children\": \"").append(children)
+                .append("\", totalChildren\": \"").append(totalChildren)
                 .append("}");
         return builder.toString();
     }
@@ -1,10 +1,16 @@
 package com.github.cornerstonews.adb;
 
+import java.util.function.Predicate;
+
 import com.android.ddmlib.FileListingService.FileEntry;
 
 class FileNodeConverter {
 
     static FileNode convert(FileEntry path) {
+        return convert(path, entry -> true);
+    }
+
+    static FileNode convert(FileEntry path, Predicate<FileEntry> filter) {
         FileNode node = new FileNode();
         node.setName(path.getName());
         node.setFullPath(path.getFullPath());
@@ -22,7 +28,9 @@ class FileNodeConverter {
         if (path.isDirectory()) {
             FileEntry[] children = path.getCachedChildren();
             for (FileEntry entry : children) {
-                node.addChild(convert(entry));
+                if (filter.test(entry)) {
+                    node.addChild(convert(entry, filter));
+                }
             }
         }
         
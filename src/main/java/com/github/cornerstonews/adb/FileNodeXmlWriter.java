@@ -0,0 +1,64 @@
+package com.github.cornerstonews.adb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.android.ddmlib.FileListingService.FileEntry;
+
+/**
+ * Writes a listed {@link FileEntry} tree as XML in the same form JAXB produces for {@link FileNode}, without
+ * materializing the {@link FileNode} tree first.
+ */
+class FileNodeXmlWriter {
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    static void write(FileEntry path, OutputStream outputStream) throws IOException {
+        try {
+            XMLStreamWriter writer = OUTPUT_FACTORY.createXMLStreamWriter(outputStream, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            writeNode(writer, "files", path);
+            writer.writeEndDocument();
+            writer.flush();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error writing path " + path.getFullPath(), e);
+        }
+    }
+
+    private static void writeNode(XMLStreamWriter writer, String elementName, FileEntry path) throws XMLStreamException {
+        writer.writeStartElement(elementName);
+        writeElement(writer, "name", path.getName());
+        writeElement(writer, "fullPath", path.getFullPath());
+        writeElement(writer, "directory", String.valueOf(path.isDirectory()));
+        writeElement(writer, "info", path.getInfo());
+        writeElement(writer, "permissions", path.getPermissions());
+        writeElement(writer, "size", path.getSize());
+        writeElement(writer, "date", path.getDate());
+        writeElement(writer, "time", path.getTime());
+        writeElement(writer, "owner", path.getOwner());
+        writeElement(writer, "group", path.getGroup());
+        writeElement(writer, "appPackage", String.valueOf(path.isApplicationPackage()));
+        writeElement(writer, "root", String.valueOf(path.isRoot()));
+
+        if (path.isDirectory()) {
+            for (FileEntry entry : path.getCachedChildren()) {
+                writeNode(writer, "children", entry);
+            }
+        }
+        writer.writeEndElement();
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String elementName, String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        writer.writeStartElement(elementName);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+}
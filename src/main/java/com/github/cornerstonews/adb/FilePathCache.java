@@ -0,0 +1,168 @@
+package com.github.cornerstonews.adb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.FileListingService.FileEntry;
+import com.android.ddmlib.IDevice;
+
+/**
+ * Path indexed cache of device directory listings. Directories are kept in a trie keyed by path segment, a
+ * directory is only listed again once its listing is older than the configured freshness or it got invalidated.
+ * The default freshness of 0 lists every directory along the path on each lookup, same as without a cache.
+ *
+ * Listings run outside the cache lock, a lookup needing a directory already being listed waits for that listing.
+ */
+class FilePathCache {
+
+    private static final Logger LOG = LogManager.getLogger(FilePathCache.class);
+
+    public static final long DEFAULT_FRESHNESS_MS = 0;
+
+    private final IDevice device;
+    private long freshnessMs = DEFAULT_FRESHNESS_MS;
+    private PathNode root;
+
+    private static final class PathNode {
+        private final FileEntry entry;
+        private long listTime = 0;
+        // Children by name, replaced as a whole by every listing and never modified afterwards
+        private Map<String, PathNode> children;
+        private CompletableFuture<Map<String, PathNode>> listing;
+        // Bumped on every invalidation, tells a listing in flight that it may predate a change
+        private int generation = 0;
+
+        private PathNode(FileEntry entry) {
+            this.entry = entry;
+        }
+    }
+
+    FilePathCache(IDevice device) {
+        this.device = device;
+    }
+
+    synchronized void setFreshness(long freshness, TimeUnit timeUnit) {
+        this.freshnessMs = timeUnit.toMillis(freshness);
+    }
+
+    /**
+     * Returns the entry of the path, with the directories along the path listed. Returns null if the path does
+     * not exist.
+     */
+    FileEntry resolve(String path) {
+        PathNode node = this.getRoot();
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            node = this.ensureListed(node).get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+
+        if (node.entry.isDirectory()) {
+            this.ensureListed(node);
+        }
+        return node.entry;
+    }
+
+    /**
+     * Drops the cached listing of the path and its parent, the next lookup lists them again.
+     */
+    synchronized void invalidate(String path) {
+        if (this.root == null) {
+            return;
+        }
+
+        PathNode parent = null;
+        PathNode node = this.root;
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            PathNode child = node.children == null ? null : node.children.get(segment);
+            if (child == null) {
+                // Not cached below this point
+                break;
+            }
+            parent = node;
+            node = child;
+        }
+
+        LOG.trace("Invalidating cached listing of path: '{}' for device: '{}'", path, this.device.getSerialNumber());
+        node.children = null;
+        node.listTime = 0;
+        node.generation++;
+        if (parent != null) {
+            parent.listTime = 0;
+            parent.generation++;
+        }
+    }
+
+    synchronized void invalidateAll() {
+        this.root = null;
+    }
+
+    private synchronized PathNode getRoot() {
+        if (this.root == null) {
+            this.root = new PathNode(this.device.getFileListingService().getRoot());
+        }
+        return this.root;
+    }
+
+    /**
+     * Returns the children of the directory, listing it unless its cached listing is fresh enough.
+     */
+    private Map<String, PathNode> ensureListed(PathNode node) {
+        CompletableFuture<Map<String, PathNode>> listing;
+        boolean listedElsewhere;
+        int generation;
+        synchronized (this) {
+            if (node.children != null && this.freshnessMs > 0 && (System.currentTimeMillis() - node.listTime) <= this.freshnessMs) {
+                return node.children;
+            }
+            listedElsewhere = node.listing != null;
+            if (!listedElsewhere) {
+                node.listing = new CompletableFuture<Map<String, PathNode>>();
+            }
+            listing = node.listing;
+            generation = node.generation;
+        }
+        if (listedElsewhere) {
+            // Listed by another lookup right now
+            return listing.join();
+        }
+
+        long listTime = System.currentTimeMillis();
+        try {
+            ShellCommandBudget.getDefault().acquire();
+            this.device.getFileListingService().getChildren(node.entry, false, null);
+            Map<String, PathNode> children = new HashMap<String, PathNode>();
+            synchronized (this) {
+                for (FileEntry entry : node.entry.getCachedChildren()) {
+                    PathNode existing = node.children == null ? null : node.children.get(entry.getName());
+                    // Keep the cached subtree as long as the listing still returns the same entry
+                    children.put(entry.getName(), existing != null && existing.entry == entry ? existing : new PathNode(entry));
+                }
+                node.children = children;
+                // A listing invalidated while in flight may have missed the change, the next lookup lists again
+                node.listTime = node.generation == generation ? listTime : 0;
+                node.listing = null;
+            }
+            listing.complete(children);
+            return children;
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                node.listing = null;
+            }
+            listing.completeExceptionally(e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.cornerstonews.adb;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Options for listing a directory tree on a device with {@link AdbExecutor#getPath(String, FileWalkOptions)}.
+ */
+public class FileWalkOptions {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int maxDepth = Integer.MAX_VALUE;
+    private List<String> excludes = new ArrayList<String>();
+    private long timeoutMs = 0;
+    private boolean bulkListing = false;
+
+    public FileWalkOptions() {
+    }
+
+    /**
+     * Returns the max number of directory listings in flight at the same time.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Returns how many directory levels below the requested path are listed, 0 only lists the path itself.
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Returns glob patterns (e.g. '/sdcard/Android/**') of full paths left out of the listing.
+     */
+    public List<String> getExcludes() {
+        return excludes;
+    }
+
+    public void setExcludes(List<String> excludes) {
+        this.excludes = excludes == null ? new ArrayList<String>() : excludes;
+    }
+
+    public void addExclude(String exclude) {
+        this.excludes.add(exclude);
+    }
+
+    /**
+     * Returns the max time the whole listing may take in milliseconds, 0 for no limit.
+     */
+    public long getTimeoutMs() {
+        return timeoutMs;
+    }
+
+    public void setTimeout(long timeout, TimeUnit timeUnit) {
+        this.timeoutMs = timeUnit.toMillis(timeout);
+    }
+
+    /**
+     * Returns whether the tree is listed with a single recursive listing command instead of one listing per
+     * directory. Parallelism does not apply to bulk listings.
+     */
+    public boolean isBulkListing() {
+        return bulkListing;
+    }
+
+    public void setBulkListing(boolean bulkListing) {
+        this.bulkListing = bulkListing;
+    }
+
+    /**
+     * Returns a filter accepting all full paths not matching an exclude pattern.
+     */
+    Predicate<String> getPathFilter() {
+        if (this.excludes.isEmpty()) {
+            return path -> true;
+        }
+        List<PathMatcher> matchers = this.excludes.stream().map(exclude -> FileSystems.getDefault().getPathMatcher("glob:" + exclude))
+                .collect(Collectors.toList());
+        return path -> matchers.stream().noneMatch(matcher -> matcher.matches(Paths.get(path)));
+    }
+}
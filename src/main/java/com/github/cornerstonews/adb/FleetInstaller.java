@@ -0,0 +1,150 @@
+package com.github.cornerstonews.adb;
+
+import java.io.EOFException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.InstallException;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Runs a package operation on many devices, with at most a given number of devices busy at the same time.
+ *
+ * Install errors caused by the connection to the device are retried, errors reported by the package manager are not.
+ */
+class FleetInstaller {
+
+    private static final Logger LOG = LogManager.getLogger(FleetInstaller.class);
+
+    public static final int DEFAULT_PARALLELISM = 8;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long RETRY_DELAY_MS = 2000;
+
+    interface PackageOperation {
+        void execute(AdbExecutor device) throws InstallException;
+    }
+
+    private final DeviceScheduler scheduler;
+    private final int parallelism;
+    private final int maxRetries;
+
+    FleetInstaller(DeviceScheduler scheduler, int parallelism, int maxRetries) {
+        this.scheduler = scheduler;
+        this.parallelism = Math.max(1, parallelism);
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * Runs the operation on all devices and waits until every device has finished.
+     *
+     * @return the result of every device, keyed by device serial
+     */
+    Map<String, InstallResult> run(Collection<AdbExecutor> devices, PackageOperation operation) {
+        Map<String, InstallResult> results = new LinkedHashMap<String, InstallResult>();
+        Semaphore permits = new Semaphore(this.parallelism);
+        try {
+            for (AdbExecutor device : devices) {
+                InstallResult result = new InstallResult(device.getDeviceSerial());
+                results.put(device.getDeviceSerial(), result);
+
+                permits.acquire();
+                // The permit is held until the device is done, including the delays between retries
+                Runnable task = () -> this.runAttempt(device, operation, result, 1, permits::release);
+                try {
+                    this.scheduler.execute(device.getDeviceSerial(), task);
+                } catch (RejectedExecutionException e) {
+                    // Scheduler is saturated - run on this thread instead
+                    task.run();
+                }
+            }
+            // All permits are back once the last device has finished, which also publishes the results
+            permits.acquire(this.parallelism);
+            permits.release(this.parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.warn("Interrupted while waiting for package operation to finish on all devices.");
+        }
+
+        return results;
+    }
+
+    /**
+     * Runs one attempt of the operation, and calls done once the device has finished for good.
+     */
+    private void runAttempt(AdbExecutor device, PackageOperation operation, InstallResult result, int attempt, Runnable done) {
+        boolean retrying = false;
+        result.setAttempts(attempt);
+        try {
+            operation.execute(device);
+            result.setSuccessful(true);
+            result.setError(null);
+        } catch (InstallException e) {
+            result.setError(e.getMessage());
+            if (isTransient(e) && attempt <= this.maxRetries) {
+                LOG.debug("Retrying package operation after transient error: '{}'", e.getMessage());
+                LOG.trace("Retrying package operation on device: '{}', attempt: '{}'", device.getDeviceSerial(), attempt);
+                retrying = true;
+                this.retryLater(device, operation, result, attempt + 1, done);
+            } else {
+                LOG.warn("Package operation failed after '{}' attempts. Error: '{}'", attempt, e.getMessage());
+                LOG.trace("Package operation failed on device: '{}'", device.getDeviceSerial(), e);
+            }
+        } catch (RuntimeException e) {
+            result.setError(e.getClass().getSimpleName() + ": " + e.getMessage());
+            LOG.trace("Package operation failed on device: '{}'", device.getDeviceSerial(), e);
+        } finally {
+            if (!retrying) {
+                done.run();
+            }
+        }
+    }
+
+    /**
+     * Schedules the next attempt after a growing delay, without holding a worker meanwhile.
+     */
+    private void retryLater(AdbExecutor device, PackageOperation operation, InstallResult result, int attempt, Runnable done) {
+        Executor delayed = CompletableFuture.delayedExecutor(RETRY_DELAY_MS * (attempt - 1), TimeUnit.MILLISECONDS);
+        delayed.execute(() -> {
+            try {
+                this.scheduler.execute(device.getDeviceSerial(), () -> this.runAttempt(device, operation, result, attempt, done));
+            } catch (RejectedExecutionException e) {
+                // Not run on the delay thread, which is shared by the whole JVM
+                result.setError("Retry rejected, too many tasks pending");
+                LOG.warn("Package operation retry rejected, too many tasks pending.");
+                LOG.trace("Package operation retry rejected for device: '{}'", device.getDeviceSerial());
+                done.run();
+            }
+        });
+    }
+
+    /**
+     * Connection problems are wrapped by ddmlib, while package manager failures such as INSTALL_FAILED_* come
+     * without a cause. Other I/O errors, e.g. reading the local package or a full device, fail again on a retry.
+     */
+    static boolean isTransient(InstallException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof SyncException) {
+            // A failure reported by the device comes with its own message, e.g. 'No space left on device'
+            SyncError errorCode = ((SyncException) cause).getErrorCode();
+            return (errorCode == SyncError.TRANSFER_PROTOCOL_ERROR || errorCode == SyncError.BUFFER_OVERRUN)
+                    && errorCode.getMessage().equals(cause.getMessage());
+        }
+        return cause instanceof TimeoutException || cause instanceof AdbCommandRejectedException || cause instanceof ShellCommandUnresponsiveException
+                || cause instanceof SocketException || cause instanceof SocketTimeoutException || cause instanceof EOFException;
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.cornerstonews.adb;
+
+/**
+ * Outcome of a package install or uninstall on a single device.
+ */
+public class InstallResult {
+
+    private String deviceSerial;
+    private boolean successful;
+    private int attempts;
+    private String error;
+
+    public InstallResult() {
+    }
+
+    public InstallResult(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    public String getDeviceSerial() {
+        return deviceSerial;
+    }
+
+    public void setDeviceSerial(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public void setSuccessful(boolean successful) {
+        this.successful = successful;
+    }
+
+    /**
+     * Returns how many times the operation was tried, including retries after transient errors.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Returns the error of the last attempt, or null if the operation succeeded.
+     */
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+
+    @Override
+    public String toString() {
+        return "InstallResult [deviceSerial=" + deviceSerial + ", successful=" + successful + ", attempts=" + attempts + ", error=" + error + "]";
+    }
+}
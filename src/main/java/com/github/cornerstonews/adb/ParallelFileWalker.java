@@ -0,0 +1,149 @@
+package com.github.cornerstonews.adb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.FileListingService;
+import com.android.ddmlib.FileListingService.FileEntry;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Lists a directory tree with several directory listings in flight at the same time. Listings populate the
+ * cached children of the walked {@link FileEntry} tree, same as a sequential walk does.
+ *
+ * A walk started on a worker of the scheduler lists on the calling thread only, waiting on listings queued behind
+ * it could starve the bounded pool.
+ */
+class ParallelFileWalker {
+
+    private static final Logger LOG = LogManager.getLogger(ParallelFileWalker.class);
+
+    private final DeviceScheduler scheduler;
+    private final FileListingService fileListingService;
+    private final FileWalkOptions options;
+    private final Predicate<String> pathFilter;
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+    private static final class Directory {
+        private final FileEntry entry;
+        private final int depth;
+
+        private Directory(FileEntry entry, int depth) {
+            this.entry = entry;
+            this.depth = depth;
+        }
+    }
+
+    ParallelFileWalker(DeviceScheduler scheduler, FileListingService fileListingService, FileWalkOptions options) {
+        this.scheduler = scheduler;
+        this.fileListingService = fileListingService;
+        this.options = options;
+        this.pathFilter = options.getPathFilter();
+    }
+
+    /**
+     * Returns a filter accepting all entries not matching an exclude pattern.
+     */
+    Predicate<FileEntry> getFilter() {
+        return entry -> !this.isExcluded(entry);
+    }
+
+    private boolean isExcluded(FileEntry entry) {
+        return !this.pathFilter.test(entry.getFullPath());
+    }
+
+    /**
+     * @throws TimeoutException if the walk did not finish within the timeout of the options, or a listing failed
+     */
+    void walk(FileEntry root) throws TimeoutException {
+        long deadline = this.options.getTimeoutMs() > 0 ? System.currentTimeMillis() + this.options.getTimeoutMs() : 0;
+        CompletionService<List<Directory>> listings = new ExecutorCompletionService<List<Directory>>(this.scheduler::execute);
+        boolean nested = this.scheduler.isCurrentWorker();
+        Deque<Directory> pending = new ArrayDeque<Directory>();
+        pending.add(new Directory(root, 0));
+        int inFlight = 0;
+
+        try {
+            while (!pending.isEmpty() || inFlight > 0) {
+                while (inFlight < this.options.getParallelism() && !pending.isEmpty()) {
+                    Directory directory = pending.poll();
+                    if (nested) {
+                        pending.addAll(this.list(directory));
+                        this.checkDeadline(root, deadline);
+                        continue;
+                    }
+                    try {
+                        listings.submit(() -> this.list(directory));
+                        inFlight++;
+                    } catch (RejectedExecutionException e) {
+                        // Scheduler is saturated - list on this thread instead
+                        pending.addAll(this.list(directory));
+                    }
+                }
+                if (inFlight == 0) {
+                    continue;
+                }
+
+                Future<List<Directory>> listing;
+                if (deadline == 0) {
+                    listing = listings.take();
+                } else {
+                    listing = listings.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (listing == null) {
+                        this.checkDeadline(root, deadline);
+                        continue;
+                    }
+                }
+                inFlight--;
+                pending.addAll(listing.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TimeoutException("Interrupted while listing " + root.getFullPath(), e);
+        } catch (ExecutionException e) {
+            // Only the ddmlib exceptions are declared by the callers, a failed listing leaves the walk unfinished
+            throw new TimeoutException("Error listing " + root.getFullPath(), e.getCause());
+        } finally {
+            // Skip listings still queued once the walk is over
+            this.cancelled.set(true);
+        }
+    }
+
+    private void checkDeadline(FileEntry root, long deadline) throws TimeoutException {
+        if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+            throw new TimeoutException(String.format("Listing '%s' did not finish within %d ms", root.getFullPath(), this.options.getTimeoutMs()));
+        }
+    }
+
+    private List<Directory> list(Directory directory) {
+        List<Directory> subDirectories = new ArrayList<Directory>();
+        if (this.cancelled.get()) {
+            return subDirectories;
+        }
+
+        LOG.trace("Listing directory: '{}' at depth: {}", directory.entry.getFullPath(), directory.depth);
+        ShellCommandBudget.getDefault().acquire();
+        this.fileListingService.getChildren(directory.entry, false, null);
+        if (directory.depth < this.options.getMaxDepth()) {
+            for (FileEntry entry : directory.entry.getCachedChildren()) {
+                if (entry.isDirectory() && !this.isExcluded(entry)) {
+                    subDirectories.add(new Directory(entry, directory.depth + 1));
+                }
+            }
+        }
+        return subDirectories;
+    }
+}
@@ -0,0 +1,120 @@
+package com.github.cornerstonews.adb;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Caches probe results of {@link DeviceInfo} per probe, e.g. a {@link DeviceProbe}. Only probes with a configured freshness are cached,
+ * a cached result is served until its freshness expires or the probe is invalidated.
+ *
+ * Polling adapts to how often a probe changes: every fetch returning the same result as before doubles the time
+ * the result is served from cache, up to the max backoff times the configured freshness. A changed result or an
+ * invalidation goes back to the configured freshness.
+ */
+class ProbeCache<K> {
+
+    public static final int DEFAULT_MAX_BACKOFF = 8;
+
+    private final Map<K, Long> freshness = new ConcurrentHashMap<K, Long>();
+    private final Map<K, CachedProbe> cachedProbes = new ConcurrentHashMap<K, CachedProbe>();
+    // Results pushed by the device, served without polling until unpinned
+    private final Map<K, String> pinnedProbes = new ConcurrentHashMap<K, String>();
+    private volatile int maxBackoff = DEFAULT_MAX_BACKOFF;
+    // Current time in milliseconds
+    private final LongSupplier clock;
+
+    private static final class CachedProbe {
+        private final String result;
+        private final long lastSuccessTime;
+        private final long freshnessMs;
+
+        private CachedProbe(String result, long lastSuccessTime, long freshnessMs) {
+            this.result = result;
+            this.lastSuccessTime = lastSuccessTime;
+            this.freshnessMs = freshnessMs;
+        }
+    }
+
+    ProbeCache() {
+        this(System::currentTimeMillis);
+    }
+
+    ProbeCache(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    void setFreshness(K probe, long freshness, TimeUnit timeUnit) {
+        if (freshness <= 0) {
+            this.freshness.remove(probe);
+            this.cachedProbes.remove(probe);
+        } else {
+            this.freshness.put(probe, timeUnit.toMillis(freshness));
+        }
+    }
+
+    /**
+     * Sets how many times its configured freshness an unchanged probe may be cached, 1 disables the backoff.
+     */
+    void setMaxBackoff(int maxBackoff) {
+        this.maxBackoff = Math.max(1, maxBackoff);
+    }
+
+    boolean isFetchRequired(K probe) {
+        if (this.pinnedProbes.containsKey(probe)) {
+            return false;
+        }
+        CachedProbe cachedProbe = this.cachedProbes.get(probe);
+        if (!this.freshness.containsKey(probe) || cachedProbe == null) {
+            return true;
+        }
+        return (this.clock.getAsLong() - cachedProbe.lastSuccessTime) > cachedProbe.freshnessMs;
+    }
+
+    String get(K probe) {
+        String pinnedResult = this.pinnedProbes.get(probe);
+        if (pinnedResult != null) {
+            return pinnedResult;
+        }
+        CachedProbe cachedProbe = this.cachedProbes.get(probe);
+        return cachedProbe == null ? null : cachedProbe.result;
+    }
+
+    /**
+     * Stores a freshly fetched result. A null result means the probe has no value, e.g. no IMEI, and is cached like
+     * any other result. Failed fetches must not be stored.
+     */
+    void put(K probe, String result) {
+        Long freshnessMs = this.freshness.get(probe);
+        if (freshnessMs == null) {
+            return;
+        }
+        CachedProbe previous = this.cachedProbes.get(probe);
+        long nextFreshnessMs = freshnessMs;
+        if (previous != null && Objects.equals(previous.result, result)) {
+            nextFreshnessMs = Math.min(previous.freshnessMs * 2, freshnessMs * this.maxBackoff);
+        }
+        this.cachedProbes.put(probe, new CachedProbe(result, this.clock.getAsLong(), nextFreshnessMs));
+    }
+
+    /**
+     * Serves the result until the probe is unpinned, regardless of freshness and invalidations.
+     */
+    void pin(K probe, String result) {
+        this.pinnedProbes.put(probe, result);
+    }
+
+    void unpin(Iterable<K> probes) {
+        probes.forEach(this.pinnedProbes::remove);
+    }
+
+    void invalidate(Iterable<K> probes) {
+        probes.forEach(this.cachedProbes::remove);
+    }
+
+    void invalidateAll() {
+        this.cachedProbes.clear();
+    }
+}
@@ -0,0 +1,272 @@
+package com.github.cornerstonews.adb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.AdbCommandRejectedException;
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Transfers a single large file over a raw adb exec connection, resuming an interrupted transfer from the bytes
+ * already on the destination.
+ *
+ * Data goes to '&lt;destination&gt;.part' first, which is moved to the destination once the SHA-256 digest computed
+ * on the host while streaming matches the 'sha256sum' of the device. A failed attempt keeps the partial file, so
+ * the next attempt - or the next call - only transfers the missing bytes.
+ */
+class ResumableFileTransfer {
+
+    private static final Logger LOG = LogManager.getLogger(ResumableFileTransfer.class);
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final String PARTIAL_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 200;
+    // No output for this long means the connection is gone
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private final AdbExecutor adbExecutor;
+    private final TransferProgressListener listener;
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    ResumableFileTransfer(AdbExecutor adbExecutor, TransferProgressListener listener) {
+        this.adbExecutor = adbExecutor;
+        this.listener = listener;
+    }
+
+    void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    void pull(String remote, String local) throws IOException {
+        long size = this.getRemoteSize(remote);
+        if (size < 0) {
+            throw new IOException("Remote file not found: " + remote);
+        }
+        Path localFile = Paths.get(local);
+        Path partialFile = Paths.get(local + PARTIAL_SUFFIX);
+        if (localFile.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(localFile.toAbsolutePath().getParent());
+        }
+
+        MessageDigest digest;
+        for (int attempt = 1;; attempt++) {
+            long offset = Files.exists(partialFile) ? Files.size(partialFile) : 0;
+            if (offset > size) {
+                // Left over from a different version of the file
+                Files.delete(partialFile);
+                offset = 0;
+            }
+            digest = newDigest();
+            try (InputStream resumedData = Files.exists(partialFile) ? Files.newInputStream(partialFile) : InputStream.nullInputStream()) {
+                this.digest(resumedData, digest, offset);
+            }
+            try {
+                this.pullFrom(remote, partialFile, offset, size, digest);
+                break;
+            } catch (IOException e) {
+                this.checkRetry(attempt, remote, e);
+            }
+        }
+
+        this.verify(remote, toHex(digest), () -> Files.deleteIfExists(partialFile));
+        Files.move(partialFile, localFile, StandardCopyOption.REPLACE_EXISTING);
+        this.reportProgress(size, size, 0);
+    }
+
+    void push(String local, String remote) throws IOException {
+        Path localFile = Paths.get(local);
+        long size = Files.size(localFile);
+        String partialFile = remote + PARTIAL_SUFFIX;
+
+        MessageDigest digest;
+        for (int attempt = 1;; attempt++) {
+            digest = newDigest();
+            try {
+                long offset = Math.max(0, this.getRemoteSize(partialFile));
+                if (offset > size) {
+                    this.removeRemote(partialFile);
+                    offset = 0;
+                }
+                this.pushFrom(localFile, partialFile, offset, size, digest);
+                break;
+            } catch (IOException e) {
+                this.checkRetry(attempt, local, e);
+            }
+        }
+
+        this.verify(partialFile, toHex(digest), () -> this.removeRemote(partialFile));
+        this.runRemote("mv -f " + AdbExecutor.shellQuote(partialFile) + " " + AdbExecutor.shellQuote(remote));
+        this.reportProgress(size, size, 0);
+    }
+
+    private void pullFrom(String remote, Path partialFile, long offset, long size, MessageDigest digest) throws IOException {
+        if (offset == size) {
+            return;
+        }
+        LOG.debug("Pulling '{}' from offset '{}' of '{}' bytes", remote, offset, size);
+        try (AdbConnection connection = AdbConnection.open(this.adbExecutor.getDeviceSerial(), "exec:tail -c +" + (offset + 1) + " " + AdbExecutor.shellQuote(remote));
+                OutputStream output = Files.newOutputStream(partialFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            this.copy(connection.getInputStream(), output, offset, size, digest);
+        }
+    }
+
+    private void pushFrom(Path localFile, String partialFile, long offset, long size, MessageDigest digest) throws IOException {
+        try (InputStream input = Files.newInputStream(localFile)) {
+            // Bytes already on the device only go through the digest
+            this.digest(input, digest, offset);
+            if (offset == size) {
+                return;
+            }
+            LOG.debug("Pushing '{}' from offset '{}' of '{}' bytes", localFile, offset, size);
+            // 'head' exits on its own after the missing bytes, so the connection needs no half-close
+            String command = "exec:head -c " + (size - offset) + " >> " + AdbExecutor.shellQuote(partialFile);
+            try (AdbConnection connection = AdbConnection.open(this.adbExecutor.getDeviceSerial(), command)) {
+                this.copy(input, connection.getOutputStream(), offset, size, digest);
+
+                // Wait until 'head' has written everything and exited
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                while (connection.getInputStream().read() != -1) {
+                    // 'head' writes nothing to stdout
+                }
+            }
+        }
+    }
+
+    private void copy(InputStream input, OutputStream output, long offset, long size, MessageDigest digest) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long transferred = offset;
+        long startTime = System.currentTimeMillis();
+        long lastReport = startTime;
+        int read;
+        while (transferred < size && (read = input.read(buffer, 0, (int) Math.min(buffer.length, size - transferred))) != -1) {
+            output.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            transferred += read;
+
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= PROGRESS_INTERVAL_MS) {
+                lastReport = now;
+                this.reportProgress(transferred, size, (transferred - offset) * 1000 / Math.max(1, now - startTime));
+            }
+        }
+        output.flush();
+        if (transferred < size) {
+            throw new IOException("Connection closed after " + transferred + " of " + size + " bytes");
+        }
+    }
+
+    private interface Cleanup {
+        void run() throws IOException;
+    }
+
+    private void verify(String remote, String localDigest, Cleanup onMismatch) throws IOException {
+        String remoteDigest = this.getRemoteDigest(remote);
+        if (remoteDigest == null) {
+            LOG.warn("'sha256sum' not available on device, transfer of '{}' not verified", remote);
+            return;
+        }
+        if (!remoteDigest.equalsIgnoreCase(localDigest)) {
+            // Start over on the next call, the partial data can't be trusted
+            onMismatch.run();
+            throw new IOException("Checksum mismatch for '" + remote + "', device: " + remoteDigest + ", host: " + localDigest);
+        }
+    }
+
+    private void checkRetry(int attempt, String file, IOException e) throws IOException {
+        if (attempt >= this.maxAttempts) {
+            throw e;
+        }
+        LOG.info("Transfer of '{}' interrupted, resuming. Error: '{}'", file, e.getMessage());
+        LOG.trace("Transfer of '{}' interrupted on device: '{}', attempt: '{}'", file, this.adbExecutor.getDeviceSerial(), attempt, e);
+    }
+
+    private void reportProgress(long transferredBytes, long totalBytes, long bytesPerSecond) {
+        if (this.listener == null) {
+            return;
+        }
+        try {
+            this.listener.onProgress(transferredBytes, totalBytes, bytesPerSecond);
+        } catch (RuntimeException e) {
+            // Catch possible exception thrown by listeners
+            LOG.debug("Exception thrown by transfer progress listener");
+        }
+    }
+
+    /**
+     * Returns the size of the remote file, or -1 if it doesn't exist.
+     */
+    long getRemoteSize(String remote) throws IOException {
+        String output = this.runRemote("stat -c %s " + AdbExecutor.shellQuote(remote) + " 2>/dev/null");
+        try {
+            return output.isEmpty() ? -1 : Long.parseLong(output);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    String getRemoteDigest(String remote) throws IOException {
+        String output = this.runRemote("sha256sum " + AdbExecutor.shellQuote(remote) + " 2>/dev/null");
+        String digest = output.split("\\s+", 2)[0];
+        return digest.matches("[0-9a-fA-F]{64}") ? digest : null;
+    }
+
+    private void removeRemote(String remote) throws IOException {
+        this.runRemote("rm -f " + AdbExecutor.shellQuote(remote));
+    }
+
+    /**
+     * Runs a shell command and returns its trimmed output, an empty String if the command printed nothing.
+     */
+    private String runRemote(String command) throws IOException {
+        try {
+            String output = this.adbExecutor.executeShellCommand(command);
+            return output == null ? "" : output.trim();
+        } catch (TimeoutException | AdbCommandRejectedException | ShellCommandUnresponsiveException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    private void digest(InputStream input, MessageDigest digest, long length) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        int read;
+        while (remaining > 0 && (read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+            digest.update(buffer, 0, read);
+            remaining -= read;
+        }
+        if (remaining > 0) {
+            throw new IOException("Local file is shorter than expected");
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM provides SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(MessageDigest digest) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
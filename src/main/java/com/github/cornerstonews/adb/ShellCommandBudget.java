@@ -0,0 +1,86 @@
+package com.github.cornerstonews.adb;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate of shell commands and device connections sent to the adb server, across all devices.
+ *
+ * Callers take a permit before every command and are held back once the budget of the current second is used up.
+ * Up to one second worth of unused permits is saved for bursts. Permits are taken by shell commands, persistent
+ * session commands, battery queries, raw adb connections, directory listings, file transfers, package operations
+ * and reboots.
+ */
+public class ShellCommandBudget {
+
+    public static final double DEFAULT_COMMANDS_PER_SECOND = 100;
+
+    private static ShellCommandBudget defaultBudget;
+
+    private double commandsPerSecond;
+    private long intervalNanos;
+    private long burstNanos;
+    // Time the next permit is available at
+    private long nextPermitNanos = System.nanoTime();
+
+    public ShellCommandBudget() {
+        this(DEFAULT_COMMANDS_PER_SECOND);
+    }
+
+    /**
+     * @param commandsPerSecond max commands per second, 0 for no limit
+     */
+    public ShellCommandBudget(double commandsPerSecond) {
+        this.setCommandsPerSecond(commandsPerSecond);
+    }
+
+    /**
+     * Returns the budget shared by all devices.
+     */
+    public static synchronized ShellCommandBudget getDefault() {
+        if (defaultBudget == null) {
+            defaultBudget = new ShellCommandBudget();
+        }
+        return defaultBudget;
+    }
+
+    public static synchronized void setDefault(ShellCommandBudget budget) {
+        defaultBudget = budget;
+    }
+
+    public synchronized double getCommandsPerSecond() {
+        return this.commandsPerSecond;
+    }
+
+    /**
+     * @param commandsPerSecond max commands per second, 0 for no limit
+     */
+    public synchronized void setCommandsPerSecond(double commandsPerSecond) {
+        this.commandsPerSecond = Math.max(0, commandsPerSecond);
+        this.intervalNanos = commandsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / commandsPerSecond) : 0;
+        this.burstNanos = Math.max(this.intervalNanos, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Takes a permit for one command, waiting until one is available. An interrupted wait gives up the wait and
+     * keeps the interrupt flag set. The wait can be long under pressure, so it is best taken before any lock.
+     */
+    public void acquire() {
+        long waitNanos;
+        synchronized (this) {
+            if (this.intervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            long permitNanos = Math.max(this.nextPermitNanos, now - this.burstNanos + this.intervalNanos);
+            this.nextPermitNanos = permitNanos + this.intervalNanos;
+            waitNanos = permitNanos - now;
+        }
+        if (waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.cornerstonews.adb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.android.annotations.NonNull;
+import com.android.ddmlib.MultiLineReceiver;
+
+/**
+ * Hands shell output lines from the receiving worker over to the consuming thread through a bounded queue.
+ * Once the queue is full the receiver blocks, which stops reading from the adb connection until the consumer
+ * catches up. Closing the iterator cancels the shell command.
+ */
+class ShellLineIterator extends MultiLineReceiver implements Iterator<String>, AutoCloseable {
+
+    // Marks the end of the output, compared by identity
+    private static final String END_OF_OUTPUT = new String("");
+    private static final long OFFER_INTERVAL_MS = 100;
+
+    private final BlockingQueue<String> lines;
+    private volatile boolean cancelled = false;
+    private volatile Throwable failure;
+    private String nextLine;
+    private boolean finished = false;
+
+    ShellLineIterator(int capacity) {
+        this.lines = new ArrayBlockingQueue<String>(capacity);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    @Override
+    public void processNewLines(@NonNull String[] newLines) {
+        for (String line : newLines) {
+            this.offer(line);
+        }
+    }
+
+    void finish(Throwable error) {
+        this.failure = error;
+        this.offer(END_OF_OUTPUT);
+    }
+
+    private void offer(String line) {
+        try {
+            while (!this.cancelled && !this.lines.offer(line, OFFER_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                // consumer is behind - keep waiting unless the command got cancelled
+            }
+        } catch (InterruptedException e) {
+            this.cancelled = true;
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.nextLine != null) {
+            return true;
+        }
+        if (this.finished) {
+            return false;
+        }
+
+        String line;
+        try {
+            line = this.lines.take();
+        } catch (InterruptedException e) {
+            this.close();
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while waiting for shell output", e));
+        }
+
+        if (line == END_OF_OUTPUT) {
+            this.finished = true;
+            Throwable error = this.failure;
+            if (error != null) {
+                throw new UncheckedIOException(error instanceof IOException ? (IOException) error : new IOException(error));
+            }
+            return false;
+        }
+        this.nextLine = line;
+        return true;
+    }
+
+    @Override
+    public String next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        String line = this.nextLine;
+        this.nextLine = null;
+        return line;
+    }
+
+    @Override
+    public void close() {
+        this.cancelled = true;
+        this.finished = true;
+        this.lines.clear();
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.cornerstonews.adb;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.android.ddmlib.ShellCommandUnresponsiveException;
+import com.android.ddmlib.TimeoutException;
+
+/**
+ * Long-lived 'sh' process on a device running commands one after another, saving the connection setup and
+ * process spawn paid by every regular shell command.
+ *
+ * Each command runs in a subshell with stdin from /dev/null, followed by a sentinel carrying its exit code which
+ * marks the end of its output. Output lines are trimmed, same as for regular shell commands. When the session
+ * breaks, e.g. the device went away or a command timed out, the failing command throws and the next command
+ * opens a new session.
+ */
+public class ShellSession implements Closeable {
+
+    private static final Logger LOG = LogManager.getLogger(ShellSession.class);
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    private static final String SHELL_SERVICE = "exec:sh";
+
+    private final String deviceSerial;
+    private final String sentinelPrefix = "__CS_DONE_" + Long.toHexString(ThreadLocalRandom.current().nextLong()) + "_";
+    // Volatile so close() can abort a running command without waiting for the execute lock
+    private volatile AdbConnection connection;
+    private BufferedReader reader;
+    private long commandCount = 0;
+
+    public static final class CommandResult {
+        private final String output;
+        private final int exitCode;
+
+        CommandResult(String output, int exitCode) {
+            this.output = output;
+            this.exitCode = exitCode;
+        }
+
+        /**
+         * Returns the combined stdout and stderr of the command, or null if it produced no output.
+         */
+        public String getOutput() {
+            return output;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+    }
+
+    public ShellSession(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    public CommandResult execute(String command) throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        return this.execute(command, 0, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Executes the command in the session.
+     *
+     * @param maxTimeToOutputResponse max time the command may go without producing output, 0 for no limit
+     * @param maxTimeout max time the command may run in total, 0 for no limit
+     * @throws ShellCommandUnresponsiveException if the command did not produce output in time
+     * @throws TimeoutException if the command did not finish in time
+     */
+    public CommandResult execute(String command, long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        // Taken before the session lock, so a throttled command doesn't hold up the commands queued behind it.
+        // The permit also covers opening the session for this command.
+        ShellCommandBudget.getDefault().acquire();
+        return this.executeInSession(command, maxTimeToOutputResponse, maxTimeout, timeUnit);
+    }
+
+    private synchronized CommandResult executeInSession(String command, long maxTimeToOutputResponse, long maxTimeout, TimeUnit timeUnit)
+            throws TimeoutException, ShellCommandUnresponsiveException, IOException {
+        LOG.info("Executing session shell command: '{}'", command);
+        LOG.trace("Executing session shell command on device: '{}', command: '{}'", this.deviceSerial, command);
+        AdbConnection connection = this.ensureOpen();
+        BufferedReader reader = this.reader;
+
+        String sentinel = this.sentinelPrefix + (++this.commandCount) + ":";
+        String request = "(" + command + "\n) </dev/null 2>&1; printf '%s%d\\n' '" + sentinel + "' $?\n";
+        long outputTimeoutMs = timeUnit.toMillis(maxTimeToOutputResponse);
+        long deadline = maxTimeout > 0 ? System.currentTimeMillis() + timeUnit.toMillis(maxTimeout) : 0;
+
+        try {
+            connection.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            connection.getOutputStream().flush();
+
+            StringBuilder output = new StringBuilder();
+            while (true) {
+                connection.setReadTimeout(this.getReadTimeout(outputTimeoutMs, deadline));
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Shell session closed by device");
+                }
+
+                int sentinelIndex = line.indexOf(sentinel);
+                if (sentinelIndex >= 0) {
+                    // Output not ending with a newline is followed by the sentinel on the same line
+                    if (sentinelIndex > 0) {
+                        this.appendLine(output, line.substring(0, sentinelIndex));
+                    }
+                    int exitCode = Integer.parseInt(line.substring(sentinelIndex + sentinel.length()).trim());
+                    return new CommandResult(output.length() == 0 ? null : output.toString(), exitCode);
+                }
+                this.appendLine(output, line);
+            }
+        } catch (SocketTimeoutException e) {
+            // The command is still running, the session can not be reused
+            this.close();
+            if (deadline != 0 && System.currentTimeMillis() >= deadline) {
+                throw new TimeoutException(String.format("Shell command did not finish within %d %s", maxTimeout, timeUnit.name().toLowerCase()));
+            }
+            throw new ShellCommandUnresponsiveException();
+        } catch (IOException | RuntimeException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    private void appendLine(StringBuilder output, String line) {
+        output.append(line.trim()).append(LINE_SEPARATOR);
+    }
+
+    private int getReadTimeout(long outputTimeoutMs, long deadline) throws SocketTimeoutException {
+        long timeoutMs = outputTimeoutMs;
+        if (deadline != 0) {
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0) {
+                throw new SocketTimeoutException();
+            }
+            timeoutMs = timeoutMs > 0 ? Math.min(timeoutMs, remainingMs) : remainingMs;
+        }
+        return (int) Math.min(timeoutMs, Integer.MAX_VALUE);
+    }
+
+    private AdbConnection ensureOpen() throws IOException {
+        AdbConnection connection = this.connection;
+        if (connection == null || connection.isClosed()) {
+            LOG.debug("Opening shell session");
+            LOG.trace("Opening shell session for device: '{}'", this.deviceSerial);
+            connection = AdbConnection.openWithoutPermit(this.deviceSerial, SHELL_SERVICE);
+            this.reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            this.connection = connection;
+        }
+        return connection;
+    }
+
+    public boolean isOpen() {
+        AdbConnection connection = this.connection;
+        return connection != null && !connection.isClosed();
+    }
+
+    /**
+     * Closes the session. Does not wait for a running command, the command fails right away instead.
+     */
+    @Override
+    public void close() {
+        AdbConnection connection = this.connection;
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                LOG.trace("Error closing shell session for device: '{}'", this.deviceSerial, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.cornerstonews.adb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.android.ddmlib.InstallException;
+
+/**
+ * Installs a package by streaming it into 'cmd package install -S &lt;size&gt;' on the device, without a copy of
+ * the package in a temp file on the host or on the device. Needs API level 24 or newer.
+ */
+class StreamingInstaller {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long INSTALL_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private final String deviceSerial;
+
+    StreamingInstaller(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    void install(InputStream packageStream, long size, boolean reinstall) throws InstallException {
+        try (AdbConnection connection = this.openInstall(size, reinstall)) {
+            OutputStream output = connection.getOutputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = size;
+            int read;
+            while (remaining > 0 && (read = packageStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                output.write(buffer, 0, read);
+                remaining -= read;
+            }
+            if (remaining > 0) {
+                throw new InstallException("Package stream ended " + remaining + " bytes before the given size of " + size + " bytes");
+            }
+            this.finishInstall(connection);
+        } catch (IOException e) {
+            throw new InstallException(e);
+        }
+    }
+
+    void install(ByteBuffer packageBuffer, boolean reinstall) throws InstallException {
+        // Written from a duplicate so the caller's buffer position is left alone
+        ByteBuffer data = packageBuffer.duplicate();
+        try (AdbConnection connection = this.openInstall(data.remaining(), reinstall)) {
+            WritableByteChannel output = Channels.newChannel(connection.getOutputStream());
+            while (data.hasRemaining()) {
+                output.write(data);
+            }
+            this.finishInstall(connection);
+        } catch (IOException e) {
+            throw new InstallException(e);
+        }
+    }
+
+    private AdbConnection openInstall(long size, boolean reinstall) throws IOException {
+        return AdbConnection.open(this.deviceSerial, "exec:cmd package install " + (reinstall ? "-r " : "") + "-S " + size);
+    }
+
+    /**
+     * Checks the package manager's reply, which is 'Success' or 'Failure [reason]'. The package manager knows the
+     * package size and replies once it read all of it, the connection is not half-closed as some adb servers close
+     * it completely then.
+     */
+    private void finishInstall(AdbConnection connection) throws IOException, InstallException {
+        connection.getOutputStream().flush();
+        connection.setReadTimeout((int) INSTALL_TIMEOUT_MS);
+
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = connection.getInputStream().read(buffer)) != -1) {
+            reply.write(buffer, 0, read);
+        }
+
+        String result = new String(reply.toByteArray(), StandardCharsets.UTF_8).trim();
+        if (!result.startsWith("Success")) {
+            throw new InstallException(result.isEmpty() ? "No reply from package manager" : result);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.cornerstonews.adb;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls files with the adb sync protocol straight into a channel or buffer of the caller.
+ *
+ * ddmlib's SyncService always writes to a local file, this talks the 'sync:' service over a raw
+ * {@link AdbConnection} instead, so the data is written to the destination as it arrives.
+ */
+class SyncChannelPuller {
+
+    // Max payload of a sync DATA packet
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+    private static final int READ_TIMEOUT_MS = 30 * 1000;
+
+    private final String deviceSerial;
+
+    SyncChannelPuller(String deviceSerial) {
+        this.deviceSerial = deviceSerial;
+    }
+
+    /**
+     * Returns the size of the remote file, or -1 if it doesn't exist. STAT only carries 32 bits, so the size of
+     * files of 4 GiB or more wraps around.
+     */
+    long getFileSize(String remote) throws IOException {
+        try (AdbConnection connection = this.open()) {
+            this.sendRequest(connection, "STAT", remote);
+            DataInputStream input = connection.getInputStream();
+            String id = connection.readString(4);
+            if (!"STAT".equals(id)) {
+                throw new IOException("Unexpected sync reply: " + id);
+            }
+            int mode = readInt(input);
+            long size = Integer.toUnsignedLong(readInt(input));
+            readInt(input); // mtime
+            return mode == 0 ? -1 : size;
+        }
+    }
+
+    /**
+     * Writes the remote file to the channel and returns the number of bytes written.
+     */
+    long pull(String remote, WritableByteChannel destination) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(MAX_CHUNK_SIZE);
+        return this.pull(remote, (input, length) -> {
+            chunk.clear();
+            input.readFully(chunk.array(), 0, length);
+            chunk.limit(length);
+            while (chunk.hasRemaining()) {
+                destination.write(chunk);
+            }
+        });
+    }
+
+    /**
+     * Writes the remote file into the buffer from its current position, and moves the position past the written
+     * bytes.
+     */
+    long pull(String remote, ByteBuffer destination) throws IOException {
+        byte[] chunk = destination.hasArray() ? null : new byte[MAX_CHUNK_SIZE];
+        return this.pull(remote, (input, length) -> {
+            if (destination.remaining() < length) {
+                throw new IOException("Destination buffer too small for '" + remote + "'", new BufferOverflowException());
+            }
+            if (chunk == null) {
+                // Heap buffer, read straight into its backing array
+                input.readFully(destination.array(), destination.arrayOffset() + destination.position(), length);
+                destination.position(destination.position() + length);
+            } else {
+                input.readFully(chunk, 0, length);
+                destination.put(chunk, 0, length);
+            }
+        });
+    }
+
+    private interface ChunkWriter {
+        void write(DataInputStream input, int length) throws IOException;
+    }
+
+    private long pull(String remote, ChunkWriter writer) throws IOException {
+        try (AdbConnection connection = this.open()) {
+            this.sendRequest(connection, "RECV", remote);
+            DataInputStream input = connection.getInputStream();
+            long total = 0;
+            while (true) {
+                String id = connection.readString(4);
+                int length = readInt(input);
+                if ("DATA".equals(id)) {
+                    if (length < 0 || length > MAX_CHUNK_SIZE) {
+                        throw new IOException("Invalid sync data length: " + length);
+                    }
+                    writer.write(input, length);
+                    total += length;
+                } else if ("DONE".equals(id)) {
+                    return total;
+                } else if ("FAIL".equals(id)) {
+                    throw new IOException("Pull of '" + remote + "' failed: " + connection.readString(length));
+                } else {
+                    throw new IOException("Unexpected sync reply: " + id);
+                }
+            }
+        }
+    }
+
+    private AdbConnection open() throws IOException {
+        AdbConnection connection = AdbConnection.open(this.deviceSerial, "sync:");
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private void sendRequest(AdbConnection connection, String id, String path) throws IOException {
+        byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.allocate(8 + pathBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        request.put(id.getBytes(StandardCharsets.US_ASCII)).putInt(pathBytes.length).put(pathBytes);
+        OutputStream output = connection.getOutputStream();
+        output.write(request.array());
+        output.flush();
+    }
+
+    private static int readInt(DataInputStream input) throws IOException {
+        // Sync protocol integers are little endian
+        return Integer.reverseBytes(input.readInt());
+    }
+}
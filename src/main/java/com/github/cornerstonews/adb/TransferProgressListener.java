@@ -0,0 +1,16 @@
+package com.github.cornerstonews.adb;
+
+/**
+ * Receives the progress of a single file transfer.
+ */
+public interface TransferProgressListener {
+
+    /**
+     * Called periodically while the file is transferred and once when it is complete.
+     *
+     * @param transferredBytes bytes of the file on the destination so far, including bytes of a resumed transfer
+     * @param totalBytes size of the file
+     * @param bytesPerSecond transfer rate of the current attempt
+     */
+    void onProgress(long transferredBytes, long totalBytes, long bytesPerSecond);
+}
@@ -0,0 +1,69 @@
+package com.github.cornerstonews.adb;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk file transfer.
+ */
+public class TransferResult {
+
+    private int transferredFiles;
+    private int skippedFiles;
+    private long transferredBytes;
+    private final Map<String, String> failures = new LinkedHashMap<String, String>();
+
+    public TransferResult() {
+    }
+
+    public synchronized int getTransferredFiles() {
+        return transferredFiles;
+    }
+
+    /**
+     * Returns the number of files left out as they were unchanged since the last transfer.
+     */
+    public synchronized int getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    public synchronized long getTransferredBytes() {
+        return transferredBytes;
+    }
+
+    /**
+     * Returns the error of every file which failed to transfer, keyed by the file's source path.
+     */
+    public synchronized Map<String, String> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, String>(failures));
+    }
+
+    public synchronized boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    synchronized void addTransferred(long bytes) {
+        this.transferredFiles++;
+        this.transferredBytes += bytes;
+    }
+
+    synchronized void addSkipped() {
+        this.skippedFiles++;
+    }
+
+    synchronized void addFailure(String path, String error) {
+        this.failures.put(path, error);
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("{\"transferredFiles\":\"").append(transferredFiles)
+                .append("\", \"skippedFiles\":\"").append(skippedFiles)
+                .append("\", \"transferredBytes\":\"").append(transferredBytes)
+                .append("\", \"failures\":\"").append(failures)
+                .append("\"}");
+        return builder.toString();
+    }
+}
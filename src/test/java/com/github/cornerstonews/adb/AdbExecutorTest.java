@@ -0,0 +1,52 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.android.ddmlib.IDevice;
+
+public class AdbExecutorTest {
+
+    @Test
+    public void timedOutRefreshDoesNotQueueAnotherOne() throws Exception {
+        AdbExecutor executor = new AdbExecutor("serial-1", newDevice("serial-1"));
+        // Lane of a stuck device, nothing queued ever runs
+        List<Runnable> lane = new ArrayList<Runnable>();
+
+        CompletableFuture<DeviceDO> first = executor.getDeviceInfoAsync(lane::add, 50, TimeUnit.MILLISECONDS);
+        assertThrows(ExecutionException.class, () -> first.get(1, TimeUnit.SECONDS));
+        executor.getDeviceInfoAsync(lane::add, 50, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, lane.size());
+    }
+
+    @Test
+    public void replacingDefaultSchedulerKeepsExistingExecutorsWorking() throws Exception {
+        AdbExecutor executor = new AdbExecutor("serial-1", newDevice("serial-1"));
+        DeviceScheduler previous = DeviceScheduler.getDefault();
+        DeviceScheduler replacement = new DeviceScheduler();
+        DeviceScheduler.setDefault(replacement);
+        try {
+            assertNull(executor.executeShellCommandAsync("true", 1, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+        } finally {
+            DeviceScheduler.setDefault(previous);
+            replacement.shutdown();
+        }
+    }
+
+    private static IDevice newDevice(String serial) {
+        // Device printing nothing for every shell command
+        return (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(), new Class<?>[] { IDevice.class },
+                (proxy, method, args) -> method.getName().equals("getSerialNumber") ? serial : null);
+    }
+}
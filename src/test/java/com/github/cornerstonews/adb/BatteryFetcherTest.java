@@ -0,0 +1,24 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+public class BatteryFetcherTest {
+
+    @Test
+    public void dumpsysBatteryIsParsedInOnePass() {
+        BatteryFetcher.DumpSysBatteryReceiver receiver = new BatteryFetcher.DumpSysBatteryReceiver();
+        receiver.processNewLines(new String[] { "Current Battery Service state:", "  AC powered: false", "  USB powered: true",
+                "  Wireless powered: false", "  Max charging current: 500000", "  status: 2", "  health: 2", "  present: true", "  level: 85",
+                "  scale: 100", "  voltage: 4231", "  temperature: 253", "  technology: Li-ion" });
+
+        BatterySample sample = receiver.getSample();
+        assertEquals(85, sample.getLevel());
+        assertEquals("GOOD", sample.getHealth());
+        assertEquals(25.3, sample.getTemperature());
+        assertEquals(4231, sample.getVoltage());
+        assertEquals("CHARGING", sample.getStatus());
+        assertEquals("USB", sample.getPlugType());
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class BatteryHistoryTest {
+
+    @Test
+    public void oldestSamplesAreOverwrittenAndWindowed() {
+        BatteryHistory history = new BatteryHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.add(sample(i * 1000L, 90 - i, i == 4 ? null : 30.0 + i));
+        }
+
+        assertEquals(3, history.size());
+        // Samples 3, 4 and 5 are left
+        BatteryHistory.Statistics levels = history.getStatistics(BatteryMetric.LEVEL, 0);
+        assertEquals(3, levels.getCount());
+        assertEquals(85, levels.getMin());
+        assertEquals(87, levels.getMax());
+        assertEquals(86, levels.getAverage());
+
+        // Sample 4 has no temperature
+        BatteryHistory.Statistics temperatures = history.getStatistics(BatteryMetric.TEMPERATURE, 4000L);
+        assertEquals(1, temperatures.getCount());
+        assertEquals(35, temperatures.getMax(), 0.001);
+        assertTrue(Double.isNaN(history.getStatistics(BatteryMetric.VOLTAGE, 0).getAverage()));
+    }
+
+    private static BatterySample sample(long timestamp, int level, Double temperature) {
+        BatterySample sample = new BatterySample();
+        sample.setTimestamp(timestamp);
+        sample.setLevel(level);
+        sample.setTemperature(temperature);
+        return sample;
+    }
+}
@@ -0,0 +1,109 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class BulkFileListingParserTest {
+
+    private static final String[] LISTING = new String[] {
+            "/sdcard/:",
+            "total 40",
+            "drwxrwx--x 6 root sdcard_rw 4096 2023-05-01 10:15 .",
+            "drwx--x--x 4 root sdcard_rw 4096 2023-05-01 10:15 ..",
+            "drwxrwx--x 2 root sdcard_rw 4096 2023-05-02 11:00 DCIM",
+            "drwxrwx--x 2 root sdcard_rw 4096 2023-05-02 11:00 My Music",
+            "-rw-rw---- 1 root sdcard_rw 1234 2023-05-03 12:30 notes.txt",
+            "lrwxrwxrwx 1 root root 21 2023-05-03 12:30 link -> /storage/self/primary",
+            "",
+            "/sdcard//DCIM:",
+            "total 8",
+            "-rw-rw---- 1 root sdcard_rw 99 2023-05-04 08:00 photo one.jpg",
+            "",
+            "/sdcard//My Music:",
+            "ls: /sdcard//My Music/private: Permission denied",
+            "-rw-rw---- 1 root sdcard_rw 7 2023-05-04 08:00 song.mp3" };
+
+    private static FileNode parse(int maxDepth, String exclude) {
+        return parse(LISTING, maxDepth, exclude).getRoot();
+    }
+
+    private static BulkFileListingParser parse(String[] listing, int maxDepth, String exclude) {
+        FileNode root = new FileNode();
+        root.setName("sdcard");
+        root.setFullPath("/sdcard");
+        root.setDirectory(true);
+        BulkFileListingParser parser = new BulkFileListingParser(root, maxDepth, path -> exclude == null || !path.startsWith(exclude));
+        for (String line : listing) {
+            parser.processLine(line);
+        }
+        return parser;
+    }
+
+    private static FileNode child(FileNode node, String name) {
+        return node.getChildren().stream().filter(child -> name.equals(child.getName())).findFirst().orElse(null);
+    }
+
+    @Test
+    public void parsesRecursiveListingIntoTree() {
+        FileNode root = parse(Integer.MAX_VALUE, null);
+
+        List<FileNode> children = root.getChildren();
+        assertEquals(4, children.size());
+
+        FileNode notes = child(root, "notes.txt");
+        assertEquals("/sdcard/notes.txt", notes.getFullPath());
+        assertEquals("-rw-rw----", notes.getPermissions());
+        assertEquals("1234", notes.getSize());
+        assertEquals("2023-05-03", notes.getDate());
+        assertEquals("12:30", notes.getTime());
+        assertEquals("root", notes.getOwner());
+        assertEquals("sdcard_rw", notes.getGroup());
+        assertFalse(notes.isDirectory());
+
+        FileNode link = child(root, "link");
+        assertEquals("-> /storage/self/primary", link.getInfo());
+
+        FileNode photo = child(child(root, "DCIM"), "photo one.jpg");
+        assertEquals("/sdcard/DCIM/photo one.jpg", photo.getFullPath());
+
+        FileNode music = child(root, "My Music");
+        assertTrue(music.isDirectory());
+        assertEquals(1, music.getChildren().size());
+        assertEquals("/sdcard/My Music/song.mp3", music.getChildren().get(0).getFullPath());
+    }
+
+    @Test
+    public void appliesDepthAndFilter() {
+        FileNode root = parse(0, "/sdcard/DCIM");
+
+        assertNull(child(root, "DCIM"));
+        assertNull(child(root, "My Music").getChildren());
+    }
+
+    @Test
+    public void toolboxOrMissingListingIsNotRecognized() {
+        assertTrue(parse(LISTING, Integer.MAX_VALUE, null).isRecognized());
+
+        String[] toolbox = new String[] {
+                "/sdcard/:",
+                "drwxrwx--x root     sdcard_rw          2015-01-01 12:00 DCIM",
+                "-rw-rw---- root     sdcard_rw     1234 2015-01-01 12:00 notes.txt" };
+        assertFalse(parse(toolbox, Integer.MAX_VALUE, null).isRecognized());
+
+        String[] noFind = new String[] { "/system/bin/sh: find: not found" };
+        assertFalse(parse(noFind, Integer.MAX_VALUE, null).isRecognized());
+    }
+
+    @Test
+    public void listCommandIsDepthLimitedOnTheDevice() {
+        assertEquals("find '/sdcard/' -maxdepth 1 -type d -exec sh -c 'for d; do echo \"$d:\"; ls -la \"$d\"; done' sh {} +",
+                BulkFileListingParser.listCommand("/sdcard", 1));
+        assertFalse(BulkFileListingParser.listCommand("/sdcard", Integer.MAX_VALUE).contains("-maxdepth"));
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+
+public class DeviceDeltaTest {
+
+    @Test
+    public void deltaHoldsChangedFieldsOnly() {
+        DeviceDO previous = newDevice(80, true);
+        DeviceDO current = new DeviceDO(previous);
+        current.setBatteryLevel(79);
+
+        DeviceDelta delta = DeviceDelta.between(previous, current);
+        assertEquals(EnumSet.of(DeviceField.BATTERY_LEVEL), delta.getChangedFields());
+        assertEquals(80, delta.getChanges().get(DeviceField.BATTERY_LEVEL).getOldValue());
+        assertEquals(79, delta.getChanges().get(DeviceField.BATTERY_LEVEL).getNewValue());
+    }
+
+    @Test
+    public void combinedDeltaDropsFieldsChangedBack() {
+        DeviceDO first = newDevice(80, true);
+        DeviceDO second = newDevice(79, false);
+        DeviceDO third = newDevice(78, true);
+
+        DeviceDelta combined = DeviceDelta.between(first, second).followedBy(DeviceDelta.between(second, third));
+        assertEquals(EnumSet.of(DeviceField.BATTERY_LEVEL), combined.getChangedFields());
+        assertEquals(80, combined.getChanges().get(DeviceField.BATTERY_LEVEL).getOldValue());
+        assertTrue(combined.filter(EnumSet.of(DeviceField.WIFI_ENABLED)).isEmpty());
+    }
+
+    private static DeviceDO newDevice(int batteryLevel, boolean wifiEnabled) {
+        DeviceDO device = new DeviceDO();
+        device.setSerialNumber("serial-1");
+        device.setBatteryLevel(batteryLevel);
+        device.setWifiEnabled(wifiEnabled);
+        return device;
+    }
+}
@@ -0,0 +1,99 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.cornerstonews.adb.AdbManager.DeviceStatus;
+import com.github.cornerstonews.adb.AdbManager.IDeviceStatusListener;
+
+public class DeviceEventBusTest {
+
+    @Test
+    public void slowListenerGetsRepeatedDetailsCombined() throws Exception {
+        DeviceEventBus bus = new DeviceEventBus();
+        CountDownLatch firstEventStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<DeviceStatus> received = new CopyOnWriteArrayList<DeviceStatus>();
+        bus.addListener(blockingListener(firstEventStarted, release, received));
+
+        bus.publish(event("serial-1", DeviceStatus.CONNECTED));
+        assertTrue(firstEventStarted.await(5, TimeUnit.SECONDS));
+        // Listener is busy, publishing must not block and repeated details of serial-1 collapse into one
+        bus.publish(event("serial-1", DeviceStatus.DETAILS_READY));
+        bus.publish(event("serial-2", DeviceStatus.CONNECTED));
+        bus.publish(event("serial-1", DeviceStatus.DETAILS_READY));
+        release.countDown();
+
+        awaitReceived(received, 3);
+        assertEquals(List.of(DeviceStatus.CONNECTED, DeviceStatus.DETAILS_READY, DeviceStatus.CONNECTED), received);
+        bus.shutdown();
+    }
+
+    @Test
+    public void slowListenerGetsEveryStatusChangeInOrder() throws Exception {
+        DeviceEventBus bus = new DeviceEventBus();
+        CountDownLatch firstEventStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<DeviceStatus> received = new CopyOnWriteArrayList<DeviceStatus>();
+        bus.addListener(blockingListener(firstEventStarted, release, received));
+
+        bus.publish(event("serial-0", DeviceStatus.CONNECTED));
+        assertTrue(firstEventStarted.await(5, TimeUnit.SECONDS));
+        // Listener is busy, none of these may be merged into another one
+        bus.publish(event("serial-1", DeviceStatus.CONNECTED));
+        bus.publish(event("serial-1", DeviceStatus.DETAILS_READY));
+        bus.publish(event("serial-1", DeviceStatus.DISCONNECTED));
+        bus.publish(event("serial-1", DeviceStatus.CONNECTED));
+        release.countDown();
+
+        awaitReceived(received, 5);
+        assertEquals(List.of(DeviceStatus.CONNECTED, DeviceStatus.CONNECTED, DeviceStatus.DETAILS_READY, DeviceStatus.DISCONNECTED,
+                DeviceStatus.CONNECTED), received);
+        bus.shutdown();
+    }
+
+    private static IDeviceStatusListener blockingListener(CountDownLatch firstEventStarted, CountDownLatch release, List<DeviceStatus> received) {
+        return new IDeviceStatusListener() {
+            @Override
+            public void deviceStatusChanged(DeviceDO device) {
+            }
+
+            @Override
+            public void deviceStatusChanged(DeviceStatusEvent event) {
+                firstEventStarted.countDown();
+                await(release);
+                received.add(event.getStatus());
+            }
+        };
+    }
+
+    private static void awaitReceived(List<DeviceStatus> received, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // Anything beyond the expected events would show up meanwhile
+        Thread.sleep(50);
+    }
+
+    private static DeviceStatusEvent event(String serial, DeviceStatus status) {
+        DeviceDO device = new DeviceDO();
+        device.setSerialNumber(serial);
+        return new DeviceStatusEvent(serial, status, device);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class DeviceInfoAdbCommandsTest {
+
+    @Test
+    public void buildProbeScriptUsesGetpropForProperties() {
+        Map<DeviceProbe, String> commands = new EnumMap<DeviceProbe, String>(DeviceInfoAdbCommands.getCommands(34));
+        commands.remove(DeviceProbe.CMD_GET_IMEI);
+        String script = DeviceInfoAdbCommands.buildProbeScript(commands,
+                Arrays.asList(DeviceProbe.PROP_SIM_STATE, DeviceProbe.CMD_GET_WIFI_ON, DeviceProbe.CMD_GET_IMEI));
+
+        assertTrue(script.contains("getprop gsm.sim.state"));
+        assertTrue(script.contains("settings get global wifi_on"));
+        assertFalse(script.contains("CMD_GET_IMEI"));
+    }
+
+    @Test
+    public void parseProbeOutputSplitsResultsByMarker() {
+        String output = "\n" + DeviceInfoAdbCommands.PROBE_MARKER + "CMD_GET_WIFI_ON\n1\n\n"
+                + DeviceInfoAdbCommands.PROBE_MARKER + "CMD_GET_IMEI\n356938035643809\n"
+                + DeviceInfoAdbCommands.PROBE_MARKER + "PROP_SIM_STATE\n\n"
+                + DeviceInfoAdbCommands.PROBE_MARKER + "UNKNOWN\nignored\n"
+                + DeviceInfoAdbCommands.PROBE_MARKER + "CMD_GET_NFC_STATUS\nmState=on\nmAlwaysOnState=off\n";
+
+        Map<DeviceProbe, String> results = DeviceInfoAdbCommands.parseProbeOutput(output);
+
+        assertEquals("1", results.get(DeviceProbe.CMD_GET_WIFI_ON));
+        assertEquals("356938035643809", results.get(DeviceProbe.CMD_GET_IMEI));
+        assertTrue(results.containsKey(DeviceProbe.PROP_SIM_STATE));
+        assertNull(results.get(DeviceProbe.PROP_SIM_STATE));
+        assertEquals("mState=on\nmAlwaysOnState=off", results.get(DeviceProbe.CMD_GET_NFC_STATUS));
+        assertEquals(4, results.size());
+    }
+
+    @Test
+    public void commandTablesApplyNarrowerOverridesLast() {
+        assertTrue(DeviceInfoAdbCommands.getCommands(29).get(DeviceProbe.CMD_GET_IMSI).startsWith("service call iphonesubinfo 7 "));
+        assertSame(DeviceInfoAdbCommands.getCommands(34), DeviceInfoAdbCommands.getCommands(99));
+
+        Map<DeviceProbe, String> latestCommands = DeviceInfoAdbCommands.getCommands(34);
+        List<Map<DeviceProbe, String>> table = DeviceInfoAdbCommands.buildCommandTable(latestCommands, Arrays.asList(
+                DeviceInfoAdbCommands.parseOverride("CMD_GET_IMEI.35", "imei-35"),
+                DeviceInfoAdbCommands.parseOverride("CMD_GET_IMEI.36-36", "imei-36"),
+                DeviceInfoAdbCommands.parseOverride("CMD_GET_IMSI", "imsi")));
+
+        assertEquals(37, table.size());
+        assertEquals(latestCommands.get(DeviceProbe.CMD_GET_IMEI), table.get(34).get(DeviceProbe.CMD_GET_IMEI));
+        assertEquals("imei-35", table.get(35).get(DeviceProbe.CMD_GET_IMEI));
+        assertEquals("imei-36", table.get(36).get(DeviceProbe.CMD_GET_IMEI));
+        assertEquals("imsi", table.get(20).get(DeviceProbe.CMD_GET_IMSI));
+        assertSame(table.get(0), table.get(34));
+        assertNull(DeviceInfoAdbCommands.parseOverride("CMD_GET_IMEI.33-30", "imei"));
+        assertNull(DeviceInfoAdbCommands.parseOverride("UNKNOWN.35", "imei"));
+    }
+}
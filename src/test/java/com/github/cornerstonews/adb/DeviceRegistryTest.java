@@ -0,0 +1,74 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.jupiter.api.Test;
+
+import com.android.ddmlib.IDevice;
+import com.android.ddmlib.IDevice.DeviceState;
+
+public class DeviceRegistryTest {
+
+    @Test
+    public void snapshotsAreVersionedAndIndexed() {
+        DeviceRegistry registry = new DeviceRegistry();
+        AdbExecutor first = newDevice("serial-1");
+        AdbExecutor second = newDevice("serial-2");
+        registry.put(first);
+        registry.put(second);
+
+        DeviceRegistry.Snapshot before = registry.getSnapshot();
+        registry.update(first, newDeviceInfo("Pixel 7", 33));
+
+        DeviceRegistry.Snapshot after = registry.getSnapshot();
+        assertTrue(after.getVersion() > before.getVersion());
+        assertTrue(before.getDevicesByModel("Pixel 7").isEmpty());
+        assertEquals(1, after.getDevicesByModel("Pixel 7").size());
+        assertSame(first, after.getDevicesByApiLevel(33).get(0));
+        assertSame(second, after.getDevice("serial-2"));
+
+        registry.remove("serial-2");
+        assertNull(registry.getDevice("serial-2"));
+        assertEquals(2, before.size());
+    }
+
+    @Test
+    public void updateOfReplacedDeviceIsIgnored() {
+        DeviceRegistry registry = new DeviceRegistry();
+        AdbExecutor replaced = newDevice("serial-1");
+        registry.put(replaced);
+        registry.put(newDevice("serial-1"));
+
+        registry.update(replaced, newDeviceInfo("Pixel 7", 33));
+        assertTrue(registry.getSnapshot().getDevicesByModel("Pixel 7").isEmpty());
+    }
+
+    private static AdbExecutor newDevice(String serial) {
+        IDevice device = (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(), new Class<?>[] { IDevice.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getSerialNumber":
+                return serial;
+            case "getState":
+                return DeviceState.ONLINE;
+            case "isOnline":
+                return true;
+            default:
+                return method.getReturnType() == boolean.class ? false : null;
+            }
+        });
+        return new AdbExecutor(serial, device);
+    }
+
+    private static DeviceDO newDeviceInfo(String model, int apiLevel) {
+        DeviceDO deviceInfo = new DeviceDO();
+        deviceInfo.setModel(model);
+        deviceInfo.setApiLevel(apiLevel);
+        deviceInfo.setOnline(true);
+        return deviceInfo;
+    }
+}
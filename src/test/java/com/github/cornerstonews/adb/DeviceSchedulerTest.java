@@ -0,0 +1,98 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+public class DeviceSchedulerTest {
+
+    @Test
+    public void tasksForSameDeviceRunOneAtATime() throws Exception {
+        DeviceScheduler scheduler = new DeviceScheduler(4, 16);
+        AtomicInteger running = new AtomicInteger();
+        AtomicBoolean overlapped = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(8);
+
+        for (int i = 0; i < 8; i++) {
+            scheduler.execute("serial", () -> {
+                if (running.incrementAndGet() > 1) {
+                    overlapped.set(true);
+                }
+                sleep(5);
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(overlapped.get());
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void nestedTaskRunsOnCallingWorker() throws Exception {
+        DeviceScheduler scheduler = new DeviceScheduler(1, 1);
+        CompletableFuture<Integer> result = CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<Integer> nested = new CompletableFuture<Integer>();
+            scheduler.executeNested(() -> nested.complete(42));
+            return nested.join();
+        }, scheduler.forDevice("serial"));
+
+        assertEquals(42, result.get(5, TimeUnit.SECONDS));
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void rejectsTasksBeyondQueueCapacity() throws Exception {
+        DeviceScheduler scheduler = new DeviceScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute(() -> await(release));
+        scheduler.execute(() -> await(release));
+
+        assertThrows(RejectedExecutionException.class, () -> scheduler.execute(() -> await(release)));
+        assertEquals(1, scheduler.getQueueDepth());
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void rejectsTasksBeyondDeviceQueueCapacity() throws Exception {
+        DeviceScheduler scheduler = new DeviceScheduler(4, 16, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.execute("serial", () -> await(release));
+        scheduler.execute("serial", () -> await(release));
+        scheduler.execute("serial", () -> await(release));
+
+        assertThrows(RejectedExecutionException.class, () -> scheduler.execute("serial", () -> await(release)));
+        // Other devices are not affected
+        scheduler.execute("other", () -> await(release));
+        release.countDown();
+        scheduler.shutdown();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
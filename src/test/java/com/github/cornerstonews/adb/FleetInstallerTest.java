@@ -0,0 +1,34 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.file.NoSuchFileException;
+
+import org.junit.jupiter.api.Test;
+
+import com.android.ddmlib.InstallException;
+import com.android.ddmlib.SyncException;
+import com.android.ddmlib.SyncException.SyncError;
+import com.android.ddmlib.TimeoutException;
+
+public class FleetInstallerTest {
+
+    @Test
+    public void onlyConnectionErrorsAreTransient() {
+        assertTrue(FleetInstaller.isTransient(new InstallException(new TimeoutException())));
+        assertTrue(FleetInstaller.isTransient(new InstallException(new SocketException("Connection reset"))));
+        assertTrue(FleetInstaller.isTransient(new InstallException(new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR))));
+        assertFalse(FleetInstaller.isTransient(new InstallException("INSTALL_FAILED_VERSION_DOWNGRADE")));
+    }
+
+    @Test
+    public void localAndDeviceReportedErrorsAreNotTransient() {
+        assertFalse(FleetInstaller.isTransient(new InstallException(new NoSuchFileException("app.apk"))));
+        assertFalse(FleetInstaller.isTransient(new InstallException(new IOException("Permission denied"))));
+        assertFalse(FleetInstaller.isTransient(new InstallException(new SyncException(SyncError.TRANSFER_PROTOCOL_ERROR, "No space left on device"))));
+        assertFalse(FleetInstaller.isTransient(new InstallException(new SyncException(SyncError.NO_LOCAL_FILE))));
+    }
+}
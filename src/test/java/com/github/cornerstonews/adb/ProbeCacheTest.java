@@ -0,0 +1,61 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+public class ProbeCacheTest {
+
+    @Test
+    public void unchangedProbesBackOffAndChangesResetTheCadence() {
+        AtomicLong now = new AtomicLong(1000);
+        ProbeCache<DeviceProbe> cache = new ProbeCache<DeviceProbe>(now::get);
+        cache.setFreshness(DeviceProbe.CMD_GET_WIFI_ON, 100, TimeUnit.MILLISECONDS);
+
+        cache.put(DeviceProbe.CMD_GET_WIFI_ON, "1");
+        cache.put(DeviceProbe.CMD_GET_WIFI_ON, "1");
+        now.addAndGet(150);
+        // Unchanged result is cached for twice the freshness now
+        assertFalse(cache.isFetchRequired(DeviceProbe.CMD_GET_WIFI_ON));
+
+        cache.put(DeviceProbe.CMD_GET_WIFI_ON, "0");
+        now.addAndGet(150);
+        assertTrue(cache.isFetchRequired(DeviceProbe.CMD_GET_WIFI_ON));
+    }
+
+    @Test
+    public void emptyResultsAreCachedAndBackOff() {
+        AtomicLong now = new AtomicLong(1000);
+        ProbeCache<DeviceProbe> cache = new ProbeCache<DeviceProbe>(now::get);
+        cache.setFreshness(DeviceProbe.CMD_GET_IMEI, 100, TimeUnit.MILLISECONDS);
+
+        cache.put(DeviceProbe.CMD_GET_IMEI, null);
+        assertFalse(cache.isFetchRequired(DeviceProbe.CMD_GET_IMEI));
+        assertNull(cache.get(DeviceProbe.CMD_GET_IMEI));
+
+        cache.put(DeviceProbe.CMD_GET_IMEI, null);
+        now.addAndGet(150);
+        assertFalse(cache.isFetchRequired(DeviceProbe.CMD_GET_IMEI));
+    }
+
+    @Test
+    public void pinnedProbesSurviveInvalidationUntilUnpinned() {
+        ProbeCache<DeviceProbe> cache = new ProbeCache<DeviceProbe>();
+        cache.put(DeviceProbe.CMD_GET_WIFI_ON, "1");
+        cache.pin(DeviceProbe.CMD_GET_WIFI_ON, "0");
+
+        cache.invalidateAll();
+        assertFalse(cache.isFetchRequired(DeviceProbe.CMD_GET_WIFI_ON));
+        assertEquals("0", cache.get(DeviceProbe.CMD_GET_WIFI_ON));
+
+        cache.unpin(Arrays.asList(DeviceProbe.CMD_GET_WIFI_ON));
+        assertTrue(cache.isFetchRequired(DeviceProbe.CMD_GET_WIFI_ON));
+    }
+}
@@ -0,0 +1,31 @@
+package com.github.cornerstonews.adb;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.jupiter.api.Test;
+
+import com.android.ddmlib.IDevice;
+
+public class ResumableFileTransferTest {
+
+    @Test
+    public void freshPushStartsFromScratchWhenStatPrintsNothing() throws Exception {
+        // Device printing nothing for every shell command, like 'stat' of a missing '.part' file
+        IDevice device = (IDevice) Proxy.newProxyInstance(IDevice.class.getClassLoader(), new Class<?>[] { IDevice.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+            case "getSerialNumber":
+                return "serial-1";
+            default:
+                return method.getReturnType() == boolean.class ? false : null;
+            }
+        });
+        ResumableFileTransfer transfer = new ResumableFileTransfer(new AdbExecutor("serial-1", device), null);
+
+        assertEquals(-1, transfer.getRemoteSize("/sdcard/file.bin" + ResumableFileTransfer.PARTIAL_SUFFIX));
+        // No 'sha256sum' on the device, verification is skipped
+        assertNull(transfer.getRemoteDigest("/sdcard/file.bin"));
+    }
+}